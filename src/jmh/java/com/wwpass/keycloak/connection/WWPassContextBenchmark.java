@@ -0,0 +1,177 @@
+package com.wwpass.keycloak.connection;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import org.keycloak.common.crypto.CryptoIntegration;
+import org.keycloak.models.KeycloakSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.wwpass.keycloak.testing.TestPki;
+import com.wwpass.keycloak.testing.TestRealm;
+import com.wwpass.keycloak.testing.TestScope;
+
+/**
+ * Getting the context of a configuration from the cache and building it on a miss, and the steps of a build:
+ * decoding PEM or key store credentials and creating the SSL context from them.
+ * <p>
+ * A hit is compared with a hit whose validation stamp has aged, which looks up the identity provider and
+ * compares its config, and with the SHA-256 fingerprint of the config every hit computed before contexts
+ * carried a stamp. The identity provider holds inline PEM credentials, as the fingerprinted configs did.
+ * <p>
+ * The provider under test has its own context cache and credential store, so a miss does not touch the caches
+ * of the connection factory. A miss still finds the decoded credentials in the store, as every rebuild does
+ * while the files stay the same.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WWPassContextBenchmark {
+    private TestRealm realm;
+    private WWPassConnectionSettings settings;
+    private WWPassContextCache contexts;
+    private WWPassCredentialStore credentials;
+    private WWPassConnectionProviderImpl provider;
+    private WWPassContextCache revalidatedContexts;
+    private WWPassConnectionProviderImpl revalidating;
+    private KeycloakSession session;
+    private byte[] fingerprint;
+    private String realmId;
+    private WWPassCredentialSource pem;
+    private List<byte[]> pemMaterial;
+    private WWPassCredentialSource keyStore;
+    private List<byte[]> keyStoreMaterial;
+    private WWPassCredentials decoded;
+
+    /**
+     * Drops the cached context before every iteration. Each miss builds a new HTTP client,
+     * so misses run as single calls rather than in a tight loop.
+     */
+    @State(Scope.Benchmark)
+    public static class Invalidated {
+        @Setup(Level.Iteration)
+        public void invalidate(WWPassContextBenchmark benchmark) {
+            benchmark.contexts.invalidate(benchmark.realmId, TestRealm.ALIAS, null);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, GeneralSecurityException {
+        CryptoIntegration.init(WWPassContextBenchmark.class.getClassLoader());
+        realm = TestRealm.start();
+        realm.configure(Map.of(
+                "keyStore", "",
+                "certificate", realm.pki.clientCertificatePem(),
+                "privateKey", realm.pki.clientPrivateKeyPem()));
+        realmId = realm.keycloak.realm().getId();
+        settings = WWPassConnectionSettings.fromConfig(TestScope.of(realm.options));
+        contexts = new WWPassContextCache(settings);
+        credentials = new WWPassCredentialStore(settings, (id, alias) -> {});
+        session = realm.session();
+        provider = new WWPassConnectionProviderImpl(session, settings, contexts, credentials, () -> true);
+        provider.prepare(TestRealm.ALIAS, false);
+
+        Map<String, String> options = new HashMap<>(realm.options);
+        options.put("contextRevalidateInterval", "0");
+        WWPassConnectionSettings revalidated = WWPassConnectionSettings.fromConfig(TestScope.of(options));
+        revalidatedContexts = new WWPassContextCache(revalidated);
+        revalidating = new WWPassConnectionProviderImpl(session, revalidated, revalidatedContexts, credentials,
+                () -> true);
+        revalidating.prepare(TestRealm.ALIAS, false);
+        fingerprint = fingerprint(config());
+
+        pem = WWPassCredentialSource.of(session, TestRealm.ALIAS, config(), null);
+        pemMaterial = pem.read();
+        keyStore = WWPassCredentialSource.of(session, TestRealm.ALIAS, Map.of(
+                        "keyStore", "client.p12",
+                        "keyStorePassword", TestPki.PASSWORD),
+                settings.credentialsDirectory(TestRealm.NAME));
+        keyStoreMaterial = keyStore.read();
+        decoded = keyStore.decode(keyStoreMaterial, "benchmark");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        contexts.close();
+        revalidatedContexts.close();
+        credentials.close();
+        realm.close();
+    }
+
+    @Benchmark
+    public void cacheHit() {
+        provider.prepare(TestRealm.ALIAS, false);
+    }
+
+    @Benchmark
+    public void cacheHitRevalidated() {
+        revalidating.prepare(TestRealm.ALIAS, false);
+    }
+
+    // The validity check of every hit before contexts carried a validation stamp.
+    @Benchmark
+    public boolean configFingerprint() throws NoSuchAlgorithmException {
+        return Arrays.equals(fingerprint(config()), fingerprint);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 20)
+    @Measurement(iterations = 200)
+    public void cacheMiss(Invalidated invalidated) {
+        provider.prepare(TestRealm.ALIAS, false);
+    }
+
+    // Returned as Object, WWPassCredentials is package-private and the generated code lives in another package.
+    @Benchmark
+    public Object decodePem() throws IOException, GeneralSecurityException {
+        return pem.decode(pemMaterial, "benchmark");
+    }
+
+    @Benchmark
+    public Object decodeKeyStore() throws IOException, GeneralSecurityException {
+        return keyStore.decode(keyStoreMaterial, "benchmark");
+    }
+
+    @Benchmark
+    public SSLContext createSSLContext() throws IOException, GeneralSecurityException {
+        return provider.createSSLContext(decoded.certificate, decoded.privateKey, settings.trustAnchor,
+                TestRealm.NAME, TestRealm.ALIAS);
+    }
+
+    private Map<String, String> config() {
+        return session.getContext().getRealm().getIdentityProviderByAlias(TestRealm.ALIAS).getConfig();
+    }
+
+    private static byte[] fingerprint(Map<String, String> config) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (Map.Entry<String, String> entry : config.entrySet()) {
+            digest.update(entry.getKey().getBytes());
+            digest.update(entry.getValue().getBytes());
+        }
+        return digest.digest();
+    }
+}
@@ -0,0 +1,53 @@
+package com.wwpass.keycloak.connection;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Parsing of a ticket reply as the blocking and asynchronous calls receive it, against binding the reply
+ * string to a map as the connection provider did before it used the Jackson streaming API.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WWPassReplyBenchmark {
+    private final byte[] reply = ("{\"result\": true, " +
+            "\"data\": \"spfe.wwpass.com:3f8c5e9b0f6a4c1e9d2b7a6c5e4f3a2b:p@spfe.wwpass.com:1033\", " +
+            "\"ttl\": 600, \"encoding\": \"plain\"}").getBytes(StandardCharsets.UTF_8);
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    // Returned as Object, WWPassReply is package-private and the generated code lives in another package.
+    @Benchmark
+    public Object parseBytes() {
+        return WWPassReply.parse(reply);
+    }
+
+    @Benchmark
+    public Object parseStream() {
+        return WWPassReply.parse(new ByteArrayInputStream(reply));
+    }
+
+    @Benchmark
+    public Map<String, String> bindMap() throws IOException {
+        return mapper.readValue(new String(reply, StandardCharsets.UTF_8), new TypeReference<>() {});
+    }
+}
@@ -0,0 +1,60 @@
+package com.wwpass.keycloak.connection;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.wwpass.keycloak.testing.TestRealm;
+import com.wwpass.keycloak.ticket.WWPassTicket;
+
+/**
+ * A ticket and PUID request pair over mutual TLS to an {@link com.wwpass.keycloak.testing.SpfeEmulator}
+ * in the same JVM, with the context cached and connections kept open as in steady state.
+ * The emulator threads add to the allocation reported by {@code -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WWPassRoundTripBenchmark {
+    private TestRealm realm;
+    private WWPassConnectionProvider connection;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        realm = TestRealm.start();
+        connection = realm.connection();
+        connection.getTicket(TestRealm.ALIAS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        realm.close();
+    }
+
+    @Benchmark
+    public String blocking() {
+        WWPassTicket ticket = connection.getTicket(TestRealm.ALIAS);
+        return connection.getPUID(TestRealm.ALIAS, ticket.ticket);
+    }
+
+    @Benchmark
+    public String async() {
+        return connection.getTicketAsync(TestRealm.ALIAS)
+                .thenCompose(ticket -> connection.getPUIDAsync(TestRealm.ALIAS, ticket.ticket))
+                .join();
+    }
+}
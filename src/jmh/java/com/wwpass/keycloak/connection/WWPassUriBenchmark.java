@@ -0,0 +1,46 @@
+package com.wwpass.keycloak.connection;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.keycloak.common.util.KeycloakUriBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The request URI of a {@code puid} call, built by hand as every SPFE call does it,
+ * against {@link KeycloakUriBuilder} which built it before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WWPassUriBenchmark {
+    private final String spfeUrl = "https://spfe.wwpass.com/";
+    private final String ticket = "spfe.wwpass.com:3f8c5e9b0f6a4c1e9d2b7a6c5e4f3a2b:p@spfe.wwpass.com:1033";
+
+    @Benchmark
+    public URI handBuilt() {
+        return WWPassConnectionProviderImpl.uri(spfeUrl, "puid", "ticket", ticket, "auth_type", "p");
+    }
+
+    @Benchmark
+    public URI uriBuilder() {
+        return new KeycloakUriBuilder()
+                .scheme("https")
+                .host("spfe.wwpass.com")
+                .path("/puid.json")
+                .queryParam("ticket", ticket)
+                .queryParam("auth_type", "p")
+                .build();
+    }
+}
@@ -0,0 +1,100 @@
+package com.wwpass.keycloak.assets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Static files of the WWPass login page, loaded once from the theme resources in the jar.
+ * Their common version is derived from the content, so a URL containing it never changes meaning.
+ * Gzip variants are produced at build time next to the originals.
+ */
+public final class WWPassAssets {
+    private static final String ROOT = "theme-resources/resources/";
+    // Relative layout is kept, the stylesheet refers to the images as ../img/...
+    private static final List<String> PATHS = List.of(
+            "wwpass-frontend.min.js",
+            "style/wwpass-style.css",
+            "img/gluu-button-android.svg",
+            "img/gluu-button-android-action.svg",
+            "img/gluu-button-ios.svg",
+            "img/gluu-button-ios-action.svg");
+
+    private static final class Holder {
+        static final WWPassAssets INSTANCE = new WWPassAssets();
+    }
+
+    static final class Asset {
+        final String contentType;
+        final byte[] content;
+        final byte[] gzip;
+
+        private Asset(String contentType, byte[] content, byte[] gzip) {
+            this.contentType = contentType;
+            this.content = content;
+            this.gzip = gzip;
+        }
+    }
+
+    private final Map<String, Asset> assets = new HashMap<>();
+    private final String version;
+
+    private WWPassAssets() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (String path : PATHS) {
+            byte[] content = read(path);
+            if (content == null)
+                throw new IllegalStateException("WWPass asset not found: " + path);
+            digest.update(path.getBytes(StandardCharsets.UTF_8));
+            digest.update(content);
+            assets.put(path, new Asset(contentType(path), content, read(path + ".gz")));
+        }
+        version = HexFormat.of().formatHex(digest.digest(), 0, 6);
+    }
+
+    public static WWPassAssets get() {
+        return Holder.INSTANCE;
+    }
+
+    public String version() {
+        return version;
+    }
+
+    int size() {
+        return assets.size();
+    }
+
+    Asset find(String path) {
+        return assets.get(path);
+    }
+
+    private static byte[] read(String path) {
+        try (InputStream in = WWPassAssets.class.getClassLoader().getResourceAsStream(ROOT + path)) {
+            return in == null ? null : in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String contentType(String path) {
+        if (path.endsWith(".js"))
+            return "text/javascript";
+        if (path.endsWith(".css"))
+            return "text/css";
+        if (path.endsWith(".svg"))
+            return "image/svg+xml";
+        return "application/octet-stream";
+    }
+}
@@ -0,0 +1,44 @@
+package com.wwpass.keycloak.assets;
+
+import java.text.MessageFormat;
+
+import org.jboss.logging.Logger;
+
+import org.keycloak.Config.Scope;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resource.RealmResourceProviderFactory;
+
+public final class WWPassAssetsFactory implements RealmResourceProviderFactory {
+    private static final Logger LOGGER = Logger.getLogger(WWPassAssetsFactory.class);
+    public static final String ID = "wwpass-assets";
+    private WWPassAssets assets;
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public RealmResourceProvider create(KeycloakSession session) {
+        return new WWPassAssetsProvider(assets);
+    }
+
+    @Override
+    public void init(Scope config) {
+        LOGGER.info(MessageFormat.format("init({0})", config));
+        assets = WWPassAssets.get();
+        LOGGER.info(MessageFormat.format("Loaded {0} WWPass assets, version {1}", assets.size(), assets.version()));
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        LOGGER.info(MessageFormat.format("postInit({0})", factory.getClass()));
+    }
+
+    @Override
+    public void close() {
+        LOGGER.info("close()");
+    }
+}
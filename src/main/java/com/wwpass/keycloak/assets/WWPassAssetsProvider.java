@@ -0,0 +1,84 @@
+package com.wwpass.keycloak.assets;
+
+import java.util.Locale;
+
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+
+import org.keycloak.services.resource.RealmResourceProvider;
+
+final class WWPassAssetsProvider implements RealmResourceProvider {
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+    // Pages cached before an upgrade still get the file, but nobody may keep it under the old version.
+    private static final String OUTDATED = "no-cache";
+
+    private final WWPassAssets assets;
+
+    WWPassAssetsProvider(WWPassAssets assets) {
+        this.assets = assets;
+    }
+
+    @Override
+    public Object getResource() {
+        return this;
+    }
+
+    @GET
+    @Path("{version}/{path: .+}")
+    public Response get(@PathParam("version") String version,
+                        @PathParam("path") String path,
+                        @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding) {
+        WWPassAssets.Asset asset = assets.find(path);
+        if (asset == null)
+            return Response.status(Response.Status.NOT_FOUND).build();
+        boolean gzip = asset.gzip != null && acceptsGzip(acceptEncoding);
+        Response.ResponseBuilder response = Response.ok(gzip ? asset.gzip : asset.content, asset.contentType)
+                .header(HttpHeaders.CACHE_CONTROL, assets.version().equals(version) ? IMMUTABLE : OUTDATED)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip)
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        return response.build();
+    }
+
+    // An explicit gzip entry wins over "*", and either only counts with a q-value above 0.
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null)
+            return false;
+        Boolean any = null;
+        for (String entry : acceptEncoding.split(",")) {
+            String[] parts = entry.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            boolean accepted = quality(parts) > 0;
+            if (coding.equals("gzip") || coding.equals("x-gzip"))
+                return accepted;
+            if (coding.equals("*"))
+                any = accepted;
+        }
+        return Boolean.TRUE.equals(any);
+    }
+
+    // A q-value that does not parse refuses the coding rather than guessing.
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.length() < 2 || Character.toLowerCase(parameter.charAt(0)) != 'q'
+                    || parameter.charAt(1) != '=')
+                continue;
+            try {
+                double q = Double.parseDouble(parameter.substring(2).trim());
+                return q >= 0 && q <= 1 ? q : 0;
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 1;
+    }
+
+    @Override
+    public void close() {
+    }
+}
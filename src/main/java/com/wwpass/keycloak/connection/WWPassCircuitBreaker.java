@@ -0,0 +1,117 @@
+package com.wwpass.keycloak.connection;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Count-based circuit breaker guarding the SPFE calls of one configuration.
+ * Failed and slow calls within the last {@code breakerWindow} calls open the breaker,
+ * after {@code breakerOpenDuration} a single probe call decides whether it closes again.
+ * WWPass error replies do not count as failures as the service did answer.
+ */
+final class WWPassCircuitBreaker {
+    private static final Logger LOGGER = Logger.getLogger(WWPassCircuitBreaker.class);
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final boolean[] failures;
+    private final int minCalls;
+    private final int failureRate;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private State state = State.CLOSED;
+    private int next;
+    private int calls;
+    private int failed;
+    private long openedAt;
+    private boolean probing;
+
+    WWPassCircuitBreaker(String name, WWPassConnectionSettings settings) {
+        this.name = name;
+        this.failures = new boolean[settings.breakerWindow];
+        this.minCalls = Math.min(settings.breakerMinCalls, settings.breakerWindow);
+        this.failureRate = settings.breakerFailureRate;
+        this.slowCallNanos = settings.breakerSlowCall.toNanos();
+        this.openNanos = settings.breakerOpenDuration.toNanos();
+    }
+
+    synchronized State state() {
+        return state;
+    }
+
+    /**
+     * Admits a call or throws if the breaker is open.
+     */
+    synchronized void acquire() {
+        if (state == State.OPEN) {
+            long remaining = openNanos - (System.nanoTime() - openedAt);
+            if (remaining > 0)
+                throw new WWPassException(WWPassException.Reason.CIRCUIT_OPEN, String.format(
+                        "WWPass is unavailable for %s, retry in %ds", name,
+                        TimeUnit.NANOSECONDS.toSeconds(remaining) + 1));
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (probing)
+                throw new WWPassException(WWPassException.Reason.CIRCUIT_OPEN,
+                        String.format("WWPass is unavailable for %s, probe in progress", name));
+            probing = true;
+        }
+    }
+
+    synchronized void record(long nanos, WWPassException error) {
+        boolean failure = nanos > slowCallNanos ||
+                (error != null && error.getReason() != WWPassException.Reason.ERROR_REPLY);
+        switch (state) {
+            case HALF_OPEN:
+                probing = false;
+                if (failure) {
+                    open();
+                } else {
+                    reset();
+                    transition(State.CLOSED);
+                }
+                break;
+            case CLOSED:
+                if (calls == failures.length) {
+                    if (failures[next])
+                        failed--;
+                } else {
+                    calls++;
+                }
+                failures[next] = failure;
+                if (failure)
+                    failed++;
+                next = (next + 1) % failures.length;
+                if (calls >= minCalls && failed * 100 >= failureRate * calls)
+                    open();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void open() {
+        openedAt = System.nanoTime();
+        reset();
+        transition(State.OPEN);
+    }
+
+    private void reset() {
+        next = 0;
+        calls = 0;
+        failed = 0;
+    }
+
+    private void transition(State target) {
+        LOGGER.warnv("WWPass circuit breaker for {0}: {1} -> {2}", name, state, target);
+        state = target;
+        WWPassMetrics.circuitTransition(target);
+    }
+}
@@ -3,4 +3,11 @@ package com.wwpass.keycloak.connection;
 import org.keycloak.provider.ProviderFactory;
 
 public interface WWPassConnectionFactory extends ProviderFactory<WWPassConnectionProvider> {
+    /**
+     * Checks the {@code spfeEndpoints} value of an identity provider against the options of the server.
+     *
+     * @throws IllegalArgumentException naming the first entry that is not an https URL of a host in
+     *                                  {@code spfeHosts}
+     */
+    void checkEndpoints(String urls);
 }
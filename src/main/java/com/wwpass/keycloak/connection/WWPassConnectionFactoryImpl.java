@@ -1,33 +1,237 @@
 package com.wwpass.keycloak.connection;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
 import org.jboss.logging.Logger;
 
 import org.keycloak.Config.Scope;
+import org.keycloak.cluster.ClusterEvent;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.models.AbstractKeycloakTransaction;
+import org.keycloak.models.IdentityProviderModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.models.utils.PostMigrationEvent;
+import org.keycloak.provider.ProviderEvent;
+
+import com.wwpass.keycloak.idp.WWPassIdentityProviderFactory;
 
 public final class WWPassConnectionFactoryImpl implements WWPassConnectionFactory {
     private static final Logger LOGGER = Logger.getLogger(WWPassConnectionFactoryImpl.class);
+    private static final String INVALIDATION_TASK = "wwpass-context-invalidation";
+    private WWPassConnectionSettings settings = WWPassConnectionSettings.defaults();
+    private WWPassContextCache contexts = new WWPassContextCache(settings);
+    private WWPassCredentialStore credentials = new WWPassCredentialStore(settings, this::reload);
+    private KeycloakSessionFactory sessionFactory;
+    private volatile boolean clusterListenerRegistered;
+    private volatile CompletableFuture<Void> warmUp = CompletableFuture.completedFuture(null);
+    private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "wwpass-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     @Override
     public WWPassConnectionProvider create(KeycloakSession session) {
         LOGGER.info("Create");
-        return new WWPassConnectionProviderImpl(session);
+        registerClusterListener(session);
+        return new WWPassConnectionProviderImpl(session, settings, contexts, credentials, this::isWarmUpDone);
     }
 
     @Override
     public void init(Scope config) {
         LOGGER.info("init");
+        settings = WWPassConnectionSettings.fromConfig(config);
+        contexts = new WWPassContextCache(settings);
+        credentials = new WWPassCredentialStore(settings, this::reload);
+        LOGGER.infov("WWPass connection settings: {0}", settings);
+    }
+
+    @Override
+    public void checkEndpoints(String urls) {
+        WWPassEndpoints.checkAll(urls, settings);
     }
 
     @Override
     public void postInit(KeycloakSessionFactory factory) {
         LOGGER.info("postInit");
+        sessionFactory = factory;
+        factory.register(this::onEvent);
+        long refresh = settings.ticketPoolRefreshInterval.toMillis();
+        maintenance.scheduleWithFixedDelay(this::refreshTicketPools, refresh, refresh, TimeUnit.MILLISECONDS);
+    }
+
+    // Keeps pools topped up between logins, a failing run must not cancel the schedule.
+    private void refreshTicketPools() {
+        for (WWPassContext context : contexts.all()) {
+            try {
+                context.tickets.refresh();
+            } catch (RuntimeException e) {
+                LOGGER.warnv(e, "Failed to refresh WWPass ticket pool for {0}/{1}", context.realmName, context.alias);
+            }
+        }
+    }
+
+    // Contexts only exist after a provider was created, so listening from then on is enough.
+    private void registerClusterListener(KeycloakSession session) {
+        if (clusterListenerRegistered)
+            return;
+        synchronized (this) {
+            if (clusterListenerRegistered)
+                return;
+            ClusterProvider cluster = session.getProvider(ClusterProvider.class);
+            if (cluster != null)
+                cluster.registerListener(INVALIDATION_TASK, this::onClusterEvent);
+            clusterListenerRegistered = true;
+        }
+    }
+
+    private void onEvent(ProviderEvent event) {
+        if (event instanceof PostMigrationEvent) {
+            if (settings.warmUp)
+                warmUp();
+        } else if (event instanceof RealmModel.RealmRemovedEvent) {
+            RealmModel.RealmRemovedEvent removed = (RealmModel.RealmRemovedEvent) event;
+            invalidateAfterCommit(removed.getKeycloakSession(),
+                    new WWPassInvalidationEvent(removed.getRealm().getId(), null, null));
+        } else if (event instanceof RealmModel.IdentityProviderUpdatedEvent) {
+            RealmModel.IdentityProviderUpdatedEvent updated = (RealmModel.IdentityProviderUpdatedEvent) event;
+            invalidate(updated.getKeycloakSession(), updated.getRealm(), updated.getUpdatedIdentityProvider());
+        } else if (event instanceof RealmModel.IdentityProviderRemovedEvent) {
+            RealmModel.IdentityProviderRemovedEvent removed = (RealmModel.IdentityProviderRemovedEvent) event;
+            invalidate(removed.getKeycloakSession(), removed.getRealm(), removed.getRemovedIdentityProvider());
+        }
+    }
+
+    private void invalidate(KeycloakSession session, RealmModel realm, IdentityProviderModel model) {
+        if (!WWPassIdentityProviderFactory.PROVIDER_ID.equals(model.getProviderId()))
+            return;
+        invalidateAfterCommit(session,
+                new WWPassInvalidationEvent(realm.getId(), model.getAlias(), model.getInternalId()));
+    }
+
+    // Other nodes are told only once the change is committed, so their rebuild reads the new config.
+    private void invalidateAfterCommit(KeycloakSession session, WWPassInvalidationEvent event) {
+        invalidate(event);
+        session.getTransactionManager().enlistAfterCompletion(new AbstractKeycloakTransaction() {
+            @Override
+            protected void commitImpl() {
+                ClusterProvider cluster = session.getProvider(ClusterProvider.class);
+                if (cluster != null)
+                    cluster.notify(INVALIDATION_TASK, event, true, ClusterProvider.DCNotify.ALL_DCS);
+                invalidate(event);
+                rebuild(event);
+            }
+
+            @Override
+            protected void rollbackImpl() {
+            }
+        });
+    }
+
+    private void onClusterEvent(ClusterEvent event) {
+        if (!(event instanceof WWPassInvalidationEvent))
+            return;
+        WWPassInvalidationEvent invalidation = (WWPassInvalidationEvent) event;
+        LOGGER.infov("WWPass context invalidated by cluster: {0}", invalidation);
+        invalidate(invalidation);
+        rebuild(invalidation);
+    }
+
+    private void invalidate(WWPassInvalidationEvent event) {
+        if (event.getAlias() == null)
+            contexts.invalidateRealm(event.getRealmId());
+        else
+            contexts.invalidate(event.getRealmId(), event.getAlias(), event.getInternalId());
+    }
+
+    // Builds the new context and HTTP client off the request path.
+    private void rebuild(WWPassInvalidationEvent event) {
+        if (event.getAlias() == null || sessionFactory == null)
+            return;
+        maintenance.execute(() -> prepare(event.getRealmId(), event.getAlias(), false));
+    }
+
+    // Called by the credential watcher, swaps in a context with the new credentials off the request path.
+    private void reload(String realmId, String alias) {
+        if (sessionFactory == null)
+            return;
+        maintenance.execute(() -> withProvider(realmId, alias, provider -> provider.reload(alias)));
+    }
+
+    // Runs after database migration, the realms cannot be listed earlier in postInit.
+    private void warmUp() {
+        CompletableFuture<Void> done = CompletableFuture.runAsync(this::warmUpAll, maintenance);
+        warmUp = done;
+        if (settings.warmUpTimeout.isZero())
+            return;
+        try {
+            done.get(settings.warmUpTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            LOGGER.warnv("WWPass warm-up still running after {0}ms, continuing startup",
+                    settings.warmUpTimeout.toMillis());
+        } catch (ExecutionException e) {
+            LOGGER.warn("WWPass warm-up failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void warmUpAll() {
+        List<Map.Entry<String, String>> configs = new ArrayList<>();
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, session ->
+                session.realms().getRealmsStream().forEach(realm ->
+                        realm.getIdentityProvidersStream()
+                                .filter(model -> model.isEnabled() &&
+                                        WWPassIdentityProviderFactory.PROVIDER_ID.equals(model.getProviderId()))
+                                .forEach(model -> configs.add(Map.entry(realm.getId(), model.getAlias())))));
+        LOGGER.infov("Warming up {0} WWPass configurations", configs.size());
+        configs.forEach(config -> prepare(config.getKey(), config.getValue(), settings.warmUpConnect));
+    }
+
+    private void prepare(String realmId, String alias, boolean connect) {
+        withProvider(realmId, alias, provider -> provider.prepare(alias, connect));
+    }
+
+    private void withProvider(String realmId, String alias, Consumer<WWPassConnectionProviderImpl> action) {
+        try {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+                RealmModel realm = session.realms().getRealm(realmId);
+                if (realm == null)
+                    return;
+                IdentityProviderModel model = realm.getIdentityProviderByAlias(alias);
+                if (model == null || !WWPassIdentityProviderFactory.PROVIDER_ID.equals(model.getProviderId()))
+                    return;
+                session.getContext().setRealm(realm);
+                action.accept(new WWPassConnectionProviderImpl(session, settings, contexts, credentials,
+                        this::isWarmUpDone));
+            });
+        } catch (RuntimeException e) {
+            LOGGER.warnv(e, "Failed to prepare WWPass context for {0}/{1}", realmId, alias);
+        }
+    }
+
+    boolean isWarmUpDone() {
+        return warmUp.isDone();
     }
 
     @Override
     public void close() {
         LOGGER.info("close");
+        maintenance.shutdownNow();
+        credentials.close();
+        contexts.close();
     }
 
     @Override
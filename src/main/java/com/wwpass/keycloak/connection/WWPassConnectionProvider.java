@@ -1,5 +1,7 @@
 package com.wwpass.keycloak.connection;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.keycloak.provider.Provider;
 
 import com.wwpass.keycloak.ticket.WWPassTicket;
@@ -8,4 +10,21 @@ public interface WWPassConnectionProvider extends Provider {
     WWPassTicket getTicket(String configId);
 
     String getPUID(String configId, String ticket);
+
+    CompletableFuture<WWPassTicket> getTicketAsync(String configId);
+
+    CompletableFuture<String> getPUIDAsync(String configId, String ticket);
+
+    /**
+     * Reports the cached WWPass contexts of the session realm. Only with {@code probe} the endpoints
+     * are contacted, and no more than once per probe interval, a recent probe result is reported otherwise.
+     */
+    WWPassStatus getStatus(boolean probe);
+
+    /**
+     * Tells from local state only whether this node can serve WWPass logins of the session realm:
+     * warm-up is over and the cached contexts of the realm are usable. The state of WWPass itself,
+     * and so of the circuit breakers, is not taken into account as it is the same for every node.
+     */
+    boolean isReady();
 }
@@ -4,38 +4,39 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
-import java.net.http.HttpClient;
+import java.net.URLEncoder;
 import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManagerFactory;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 import org.jboss.logging.Logger;
 
 import org.keycloak.common.util.Base64;
-import org.keycloak.common.util.KeycloakUriBuilder;
-import org.keycloak.common.util.PemUtils;
 import org.keycloak.models.IdentityProviderModel;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
 
 import com.wwpass.keycloak.ticket.WWPassTicket;
 
@@ -300,40 +301,23 @@ final class WWPassConnectionProviderImpl implements WWPassConnectionProvider {
             (byte) 0x3d, (byte) 0xbf, (byte) 0xee, (byte) 0x0d, (byte) 0xe3, (byte) 0x48,
             (byte) 0x8a, (byte) 0x9d, (byte) 0x3e, (byte) 0x13, (byte) 0xd2};
 
-    private static final class ContextHolder {
-        private final byte[] hash;
-        private final SSLContext context;
-        private final Map<String, String> config;
-
-        private ContextHolder(byte[] hash,
-                              SSLContext context,
-                              Map<String, String> config) {
-            this.hash = hash;
-            this.context = context;
-            this.config = config;
-        }
-    }
-
-    private static final class UncheckedObjectMapper {
-        private final ObjectMapper mapper = new ObjectMapper();
-
-        Map<String, String> readValue(String content) {
-            try {
-                return mapper.readValue(content, new TypeReference<>() {});
-            } catch (JsonProcessingException e) {
-                LOGGER.error("WWPass JSON processing error", e);
-                return Collections.emptyMap();
-            }
-        }
-    }
-
     private final KeycloakSession session;
-    private static final Map<String, ContextHolder> CONTEXT_BY_CONFIG_ID = new HashMap<String, ContextHolder>();
+    private final WWPassConnectionSettings settings;
+    private final WWPassContextCache contexts;
+    private final WWPassCredentialStore credentials;
+    private final BooleanSupplier warmUpDone;
     private static final Logger LOGGER = Logger.getLogger(WWPassConnectionProviderImpl.class);
-    private static final UncheckedObjectMapper OBJECT_MAPPER = new UncheckedObjectMapper();
 
-    public WWPassConnectionProviderImpl(KeycloakSession session) {
+    public WWPassConnectionProviderImpl(KeycloakSession session,
+                                        WWPassConnectionSettings settings,
+                                        WWPassContextCache contexts,
+                                        WWPassCredentialStore credentials,
+                                        BooleanSupplier warmUpDone) {
         this.session = session;
+        this.settings = settings;
+        this.contexts = contexts;
+        this.credentials = credentials;
+        this.warmUpDone = warmUpDone;
     }
 
     @Override
@@ -341,7 +325,20 @@ final class WWPassConnectionProviderImpl implements WWPassConnectionProvider {
         // Nothing to do.
     }
 
-    private static SSLContext createSSLContext(X509Certificate certificate, PrivateKey key)
+    static X509Certificate loadTrustAnchor(String file) {
+        try (InputStream is = file == null
+                ? new ByteArrayInputStream(WWPASS_CA_DER)
+                : Files.newInputStream(Path.of(file))) {
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(is);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new IllegalArgumentException("Error loading WWPass trust anchor: " +
+                    (file == null ? "built-in WWPass Root CA" : file), e);
+        }
+    }
+
+    // Package-private for the context benchmark.
+    SSLContext createSSLContext(X509Certificate certificate, PrivateKey key,
+                                X509Certificate rootCA, String realmName, String configId)
             throws GeneralSecurityException, IOException {
         KeyStore.PrivateKeyEntry pke = new KeyStore.PrivateKeyEntry(key, new Certificate[]{certificate});
 
@@ -361,14 +358,6 @@ final class WWPassConnectionProviderImpl implements WWPassConnectionProvider {
 
         SSLContext context = SSLContext.getInstance("TLS");
 
-        // Making rootCA certificate
-        CertificateFactory cf;
-        X509Certificate rootCA;
-        try (InputStream is = new ByteArrayInputStream(WWPASS_CA_DER)) {
-            cf = CertificateFactory.getInstance("X.509");
-            rootCA = (X509Certificate) cf.generateCertificate(is);
-        }
-
         // Creating TrustManager for this CA
         TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(
                 TrustManagerFactory.getDefaultAlgorithm());
@@ -379,111 +368,491 @@ final class WWPassConnectionProviderImpl implements WWPassConnectionProvider {
         trustManagerFactory.init(ks);
 
         context.init(keyManagerFactory.getKeyManagers(),
-                trustManagerFactory.getTrustManagers(),
+                WWPassTls.countingTrustManagers(trustManagerFactory.getTrustManagers(), realmName, configId),
                 new java.security.SecureRandom());
-        return context;
+
+        // New connections to a WWPass endpoint resume a cached session (TLS 1.3 session ticket
+        // or TLS 1.2 session ID) instead of a full mutual TLS handshake. Only a few endpoints
+        // are used, so a small cache holds them all.
+        SSLSessionContext sessions = context.getClientSessionContext();
+        sessions.setSessionCacheSize(settings.tlsSessionCacheSize);
+        sessions.setSessionTimeout((int) settings.tlsSessionTimeout.toSeconds());
+        return WWPassTls.countingContext(context, realmName, configId);
     }
 
-    private ContextHolder getSSLContext(String configId) {
-        IdentityProviderModel configModel =
-                session.getContext().getRealm().getIdentityProviderByAlias(configId);
-        if (configModel == null)
-            throw new IllegalArgumentException("Bad Authenticator config ID: " +
-                    configId);
-        Map<String, String> config = configModel.getConfig();
-        MessageDigest digest;
+    /**
+     * Builds the context of a configuration of the session realm unless a valid one is cached,
+     * and optionally opens a connection to each of its endpoints.
+     */
+    void prepare(String configId, boolean connect) {
+        WWPassContext context = getSSLContext(configId);
+        if (connect)
+            context.endpoints.all().forEach(endpoint -> connect(context, endpoint));
+    }
+
+    /**
+     * Replaces the cached context of a configuration of the session realm if its credentials changed.
+     * The previous context keeps serving until the new one is in place.
+     */
+    void reload(String configId) {
+        RealmModel realm = session.getContext().getRealm();
+        WWPassContext cachedContext = contexts.get(realm.getId(), configId);
+        if (cachedContext == null)
+            return;
+        WWPassSpan span = WWPassSpan.start("wwpass.context.reload", (WWPassSpan) null)
+                .tag("realm", realm.getName())
+                .tag("alias", configId);
         try {
-            digest = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            LOGGER.error("Error initializing SSLContext for WWPass connection", e);
-            throw new RuntimeException("Error initializing SHA-256 config: " +
-                    configModel.getAlias());
+            WWPassCredentialSource source = WWPassCredentialSource.of(session, configId, cachedContext.config,
+                    settings.credentialsDirectory(realm.getName()));
+            WWPassCredentials loaded = credentials.load(source);
+            if (loaded.digest.equals(cachedContext.credentials.digest)) {
+                span.tag("changed", "false").end(null);
+                return;
+            }
+            contexts.put(realm.getId(), configId,
+                    newContext(realm, configId, cachedContext.internalId, cachedContext.config, loaded, span));
+            LOGGER.infov("Reloaded WWPass credentials for {0}/{1}", realm.getName(), configId);
+            span.tag("changed", "true").end(null);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            span.end(e);
+            LOGGER.errorv(e, "Failed to reload WWPass credentials for {0}/{1}, keeping the previous ones",
+                    realm.getName(), configId);
         }
-        for (Map.Entry<String, String> entry : config.entrySet()) {
-            digest.update(entry.getKey().getBytes());
-            digest.update(entry.getValue().getBytes());
+    }
+
+    // Any reply will do, the request only leaves an established TLS connection in the client pool.
+    private static void connect(WWPassContext context, WWPassEndpoints.Endpoint endpoint) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(endpoint.url))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .timeout(context.requestTimeout)
+                .build();
+        context.client.sendAsync(request, BodyHandlers.discarding())
+                .whenComplete((response, e) -> {
+                    if (e != null)
+                        LOGGER.warnv("Failed to connect to WWPass endpoint {0}: {1}", endpoint.url, e.getMessage());
+                    else
+                        LOGGER.infov("Connected to WWPass endpoint {0}", endpoint.url);
+                });
+    }
+
+    private WWPassContext getSSLContext(String configId) {
+        WWPassSpan span = WWPassSpan.start("wwpass.context", WWPassSpan.current(session))
+                .tag("alias", configId);
+        try {
+            WWPassContext context = getSSLContext(configId, span);
+            span.end(null);
+            return context;
+        } catch (RuntimeException e) {
+            span.end(e);
+            throw e;
         }
-        byte[] configHash = digest.digest();
-        ContextHolder cachedContext = CONTEXT_BY_CONFIG_ID.get(configId);
+    }
 
+    private WWPassContext getSSLContext(String configId, WWPassSpan span) {
+        RealmModel realm = session.getContext().getRealm();
+        span.tag("realm", realm.getName());
+        WWPassContext cachedContext = contexts.get(realm.getId(), configId);
         if (cachedContext != null &&
-                Arrays.equals(configHash, cachedContext.hash))
+                cachedContext.isValidated(settings.contextRevalidateInterval.toNanos())) {
+            WWPassMetrics.contextCacheHit();
+            span.tag("cache", "hit");
             return cachedContext;
+        }
 
-        String certText = config.get("certificate");
-        String keyText = config.get("privateKey");
-        if (certText == null || certText.isEmpty() || keyText == null || keyText.isEmpty())
-            throw new IllegalArgumentException(
-                    "WWPass Authentication requires private key and certificate for config: " +
-                            configModel.getAlias());
+        IdentityProviderModel configModel = realm.getIdentityProviderByAlias(configId);
+        if (configModel == null)
+            throw new IllegalArgumentException("Bad Authenticator config ID: " +
+                    configId);
+        Map<String, String> config = configModel.getConfig();
+        if (cachedContext != null && cachedContext.config.equals(config)) {
+            cachedContext.validated();
+            WWPassMetrics.contextCacheHit();
+            span.tag("cache", "hit");
+            return cachedContext;
+        }
+        if (cachedContext == null)
+            WWPassMetrics.contextCacheMiss();
+        else
+            WWPassMetrics.contextCacheRebuild();
+        span.tag("cache", cachedContext == null ? "miss" : "rebuild");
+
+        WWPassCredentialSource source = WWPassCredentialSource.of(session, configModel.getAlias(), config,
+                settings.credentialsDirectory(realm.getName()));
+        return contexts.build(realm.getId(), configId, context -> context.config.equals(config), () -> {
+            try {
+                WWPassContext context = newContext(realm, configId, configModel.getInternalId(), config,
+                        credentials.load(source), span);
+                credentials.watch(source.files(), realm.getId(), configId);
+                return context;
+            } catch (IOException | GeneralSecurityException e) {
+                LOGGER.error("Error initializing SSLContext for WWPass connection", e);
+                throw new IllegalArgumentException(
+                        "Error initializing SSLContext for WWPass connection for config: " +
+                                configModel.getAlias());
+            }
+        });
+    }
+
+    private WWPassContext newContext(RealmModel realm, String configId, String internalId,
+                                     Map<String, String> config, WWPassCredentials loaded, WWPassSpan parent)
+            throws IOException, GeneralSecurityException {
+        long buildStart = System.nanoTime();
+        WWPassSpan build = WWPassSpan.start("wwpass.context.build", parent);
         try {
-            X509Certificate certificate = PemUtils.decodeCertificate(certText);
-            PrivateKey privateKey = PemUtils.decodePrivateKey(keyText);
-            SSLContext sslContext = createSSLContext(certificate, privateKey);
-            ContextHolder newContext =
-                    new ContextHolder(configHash, sslContext, config);
-            CONTEXT_BY_CONFIG_ID.put(configId, newContext);
-            return newContext;
+            SSLContext sslContext = createSSLContext(loaded.certificate, loaded.privateKey, settings.trustAnchor,
+                    realm.getName(), configId);
+            WWPassMetrics.contextBuilt(System.nanoTime() - buildStart);
+            build.end(null);
+            return new WWPassContext(realm.getName(), configId, internalId, sslContext, loaded, config, settings);
         } catch (IOException | GeneralSecurityException e) {
-            LOGGER.error("Error initializing SSLContext for WWPass connection", e);
-            throw new IllegalArgumentException(
-                    "Error initializing SSLContext for WWPass connection for config: " +
-                            configModel.getAlias());
+            build.end(e);
+            throw e;
         }
     }
 
-    private static Map<String, String> jsonRequest(SSLContext sslContext, URI uri) {
-        HttpRequest request = HttpRequest.newBuilder(uri)
+    private static HttpRequest jsonRequest(WWPassContext ctx, URI uri, WWPassSpan span) {
+        return HttpRequest.newBuilder(uri)
                 .header("Accept", "application/json")
+                .header(WWPassSpan.HEADER, span.traceparent())
+                .timeout(ctx.requestTimeout)
                 .build();
-        HttpClient client = HttpClient.newBuilder()
-                .sslContext(sslContext)
-                .build();
+    }
+
+    private static WWPassReply jsonRequest(WWPassContext ctx, HttpRequest request) {
         try {
-            return OBJECT_MAPPER.readValue(client.send(request, BodyHandlers.ofString()).body());
-        } catch (IOException | InterruptedException e) {
-            LOGGER.error("Error accessing WWPass");
-            return Collections.emptyMap();
+            HttpResponse<InputStream> response = ctx.client.send(request, BodyHandlers.ofInputStream());
+            return WWPassReply.parse(response.body());
+        } catch (IOException e) {
+            throw accessError(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WWPassException(WWPassException.Reason.UNAVAILABLE,
+                    "Interrupted while accessing WWPass", e);
         }
     }
 
-    private static Map<String, String> request(ContextHolder ctx, String command,
-                                               String... params) {
-        KeycloakUriBuilder uriBuilder = (new KeycloakUriBuilder());
-        uriBuilder.scheme("https")
-                .host("spfe.wwpass.com")
-                .path(String.format("/%s.json", command));
+    private static CompletableFuture<WWPassReply> jsonRequestAsync(WWPassContext ctx, HttpRequest request) {
+        return ctx.client.sendAsync(request, BodyHandlers.ofByteArray())
+                .handle((response, e) -> {
+                    if (e != null)
+                        throw accessError(e instanceof CompletionException ? e.getCause() : e);
+                    return WWPassReply.parse(response.body());
+                });
+    }
+
+    private static WWPassException accessError(Throwable e) {
+        if (e instanceof HttpTimeoutException)
+            return new WWPassException(WWPassException.Reason.TIMEOUT, "Timeout accessing WWPass", e);
+        return new WWPassException(WWPassException.Reason.UNAVAILABLE, "Error accessing WWPass", e);
+    }
+
+    static WWPassException unwrap(Throwable e) {
+        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+        if (cause instanceof WWPassException)
+            return (WWPassException) cause;
+        return new WWPassException(WWPassException.Reason.UNAVAILABLE, "Error accessing WWPass", cause);
+    }
+
+    // Built by hand on every SPFE call: command and parameter names are constants,
+    // so only the values need encoding.
+    static URI uri(String spfeUrl, String command, String... params) {
+        StringBuilder uri = new StringBuilder(spfeUrl.length() + 64)
+                .append(spfeUrl).append(command).append(".json");
         for (int i = 0; i < params.length; i += 2) {
-            uriBuilder.queryParam(params[i], params[i + 1]);
-        }
-        Map<String, String> result = jsonRequest(ctx.context, uriBuilder.build());
-        if (result == null) {
-            throw new IllegalStateException("WWPass result is null");
+            uri.append(i == 0 ? '?' : '&')
+                    .append(params[i]).append('=')
+                    .append(URLEncoder.encode(params[i + 1], StandardCharsets.UTF_8));
         }
+        return URI.create(uri.toString());
+    }
+
+    private static WWPassReply checkResult(WWPassReply result) {
         LOGGER.infov("WWPass reply: {0}", result);
-        if (!Objects.equals(result.get("result"), "true")) {
-            LOGGER.errorv("WWPass error: {0}", result.toString());
-            throw new RuntimeException(String.format("WWPass error: %s", result.get("data")));
+        if (!result.result) {
+            LOGGER.errorv("WWPass error: {0}", result);
+            throw new WWPassException(WWPassException.Reason.ERROR_REPLY,
+                    String.format("WWPass error: %s", result.data));
         }
         return result;
     }
 
+    // A context replaced while the caller held it still serves the call, unless its last call already finished.
+    private static void acquire(WWPassContext ctx, String command) {
+        if (!ctx.retain())
+            throw new WWPassException(WWPassException.Reason.UNAVAILABLE, "WWPass configuration was replaced");
+        try {
+            ctx.breaker.acquire();
+        } catch (WWPassException e) {
+            ctx.release();
+            WWPassMetrics.requestRejected(ctx, command);
+            ctx.latencies.rejected();
+            throw e;
+        }
+    }
+
+    private static void completed(WWPassContext ctx, String command, long start, WWPassException error) {
+        long nanos = System.nanoTime() - start;
+        try {
+            ctx.breaker.record(nanos, error);
+            ctx.latencies.record(nanos, error);
+            WWPassMetrics.requestCompleted(ctx, command, start, error);
+        } finally {
+            ctx.release();
+        }
+    }
+
+    private WWPassReply request(WWPassContext ctx, String command,
+                                String... params) {
+        acquire(ctx, command);
+        long start = WWPassMetrics.requestStarted();
+        // Whatever is thrown, the call has to be completed: otherwise the in-flight gauge stays up
+        // and a half-open breaker keeps waiting for its probe call.
+        WWPassException error = null;
+        try {
+            return checkResult(send(ctx, WWPassSpan.current(session), command, params));
+        } catch (RuntimeException e) {
+            error = unwrap(e);
+            throw error;
+        } catch (Error e) {
+            error = unwrap(e);
+            throw e;
+        } finally {
+            completed(ctx, command, start, error);
+        }
+    }
+
+    private static CompletableFuture<WWPassReply> requestAsync(WWPassContext ctx, WWPassSpan parent,
+                                                               String command, String... params) {
+        try {
+            acquire(ctx, command);
+        } catch (WWPassException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        long start = WWPassMetrics.requestStarted();
+        CompletableFuture<WWPassReply> reply;
+        try {
+            reply = sendAsync(ctx, parent, command, params);
+        } catch (RuntimeException e) {
+            reply = CompletableFuture.failedFuture(unwrap(e));
+        }
+        return reply
+                .thenApply(WWPassConnectionProviderImpl::checkResult)
+                .whenComplete((result, e) -> completed(ctx, command, start, e == null ? null : unwrap(e)));
+    }
+
+    private static WWPassReply send(WWPassContext ctx, WWPassSpan parent, String command, String... params) {
+        WWPassEndpoints.Endpoint endpoint = ctx.endpoints.select();
+        try {
+            return sendTo(ctx, endpoint, parent, command, params);
+        } catch (WWPassException e) {
+            WWPassEndpoints.Endpoint fallback = ctx.endpoints.failover(endpoint, e);
+            if (fallback == null)
+                throw e;
+            return sendTo(ctx, fallback, parent, command, params);
+        }
+    }
+
+    private static CompletableFuture<WWPassReply> sendAsync(WWPassContext ctx, WWPassSpan parent,
+                                                            String command, String... params) {
+        WWPassEndpoints.Endpoint endpoint = ctx.endpoints.select();
+        return sendToAsync(ctx, endpoint, parent, command, params)
+                .exceptionallyCompose(e -> {
+                    WWPassException error = unwrap(e);
+                    WWPassEndpoints.Endpoint fallback = ctx.endpoints.failover(endpoint, error);
+                    if (fallback == null)
+                        return CompletableFuture.failedFuture(error);
+                    return sendToAsync(ctx, fallback, parent, command, params);
+                });
+    }
+
+    // One span per attempt, so a failover shows up as two sibling spans.
+    private static WWPassSpan spfeSpan(WWPassContext ctx, WWPassEndpoints.Endpoint endpoint,
+                                       WWPassSpan parent, String command) {
+        return WWPassSpan.start("wwpass.spfe " + command, parent)
+                .tag("realm", ctx.realmName)
+                .tag("alias", ctx.alias)
+                .tag("endpoint", endpoint.url);
+    }
+
+    private static WWPassReply sendTo(WWPassContext ctx, WWPassEndpoints.Endpoint endpoint,
+                                      WWPassSpan parent, String command, String... params) {
+        WWPassSpan span = spfeSpan(ctx, endpoint, parent, command);
+        long start = System.nanoTime();
+        try {
+            WWPassReply reply = jsonRequest(ctx, jsonRequest(ctx, uri(endpoint.url, command, params), span));
+            ctx.endpoints.record(endpoint, System.nanoTime() - start, null);
+            span.end(null);
+            return reply;
+        } catch (RuntimeException e) {
+            WWPassException error = unwrap(e);
+            ctx.endpoints.record(endpoint, System.nanoTime() - start, error);
+            span.end(error);
+            throw error;
+        }
+    }
+
+    private static CompletableFuture<WWPassReply> sendToAsync(WWPassContext ctx, WWPassEndpoints.Endpoint endpoint,
+                                                              WWPassSpan parent, String command, String... params) {
+        WWPassSpan span = spfeSpan(ctx, endpoint, parent, command);
+        long start = System.nanoTime();
+        // Building the request or handing it to the client may throw right away.
+        CompletableFuture<WWPassReply> reply;
+        try {
+            reply = jsonRequestAsync(ctx, jsonRequest(ctx, uri(endpoint.url, command, params), span));
+        } catch (RuntimeException e) {
+            reply = CompletableFuture.failedFuture(unwrap(e));
+        }
+        return reply
+                .whenComplete((result, e) -> {
+                    WWPassException error = e == null ? null : unwrap(e);
+                    ctx.endpoints.record(endpoint, System.nanoTime() - start, error);
+                    span.end(error);
+                });
+    }
+
+    private static String authType(WWPassContext context) {
+        return context.config.get("usePIN").equals("true") ? "p" : "";
+    }
+
+    private static WWPassTicket toTicket(WWPassReply result) {
+        if (result.ttl == WWPassReply.NO_TTL)
+            throw new WWPassException(WWPassException.Reason.MALFORMED_REPLY, "Malformed WWPass reply: no ticket ttl");
+        return new WWPassTicket(result.data, result.ttl);
+    }
+
+    // Static, so pool fetchers kept by a context do not hold on to the session of the provider.
+    private static CompletableFuture<WWPassTicket> fetchTicket(WWPassContext context, WWPassSpan parent) {
+        return requestAsync(context, parent, "get", "auth_type", authType(context))
+                .thenApply(WWPassConnectionProviderImpl::toTicket);
+    }
+
     @Override
     public WWPassTicket getTicket(String configId) {
-        ContextHolder context = getSSLContext(configId);
-        Map<String, String> result = request(
-                context, "get", "auth_type",
-                context.config.get("usePIN").equals("true") ? "p" : "");
-        return new WWPassTicket(result.get("data"),
-                Integer.parseInt(result.get("ttl")));
+        WWPassContext context = getSSLContext(configId);
+        WWPassTicket pooled = context.tickets.take(() -> fetchTicket(context, null));
+        if (pooled != null)
+            return pooled;
+        return toTicket(request(context, "get", "auth_type", authType(context)));
     }
 
     @Override
     public String getPUID(String configId, String ticket) {
-        ContextHolder context = getSSLContext(configId);
-        Map<String, String> result = request(
-                context, "puid", "ticket", ticket, "auth_type",
-                context.config.get("usePIN").equals("true") ? "p" : "");
-        return result.get("data");
+        WWPassContext context = getSSLContext(configId);
+        return request(context, "puid", "ticket", ticket, "auth_type", authType(context)).data;
+    }
+
+    // The context is resolved on the calling thread as it needs the session realm,
+    // only the WWPass round trip runs on the HTTP client executor.
+    @Override
+    public CompletableFuture<WWPassTicket> getTicketAsync(String configId) {
+        WWPassContext context = getSSLContext(configId);
+        WWPassTicket pooled = context.tickets.take(() -> fetchTicket(context, null));
+        if (pooled != null)
+            return CompletableFuture.completedFuture(pooled);
+        return fetchTicket(context, WWPassSpan.current(session));
+    }
+
+    @Override
+    public CompletableFuture<String> getPUIDAsync(String configId, String ticket) {
+        WWPassContext context = getSSLContext(configId);
+        return requestAsync(context, WWPassSpan.current(session),
+                "puid", "ticket", ticket, "auth_type", authType(context))
+                .thenApply(result -> result.data);
+    }
+
+    // Circuit breakers are left out on purpose: a WWPass outage opens them on every node at once,
+    // and taking all nodes out of the load balancer would fail unrelated logins as well.
+    @Override
+    public boolean isReady() {
+        if (!warmUpDone.getAsBoolean())
+            return false;
+        return contexts.contexts(session.getContext().getRealm().getId()).stream()
+                .allMatch(WWPassContext::isUsable);
+    }
+
+    @Override
+    public WWPassStatus getStatus(boolean probe) {
+        WWPassStatus status = new WWPassStatus();
+        status.warmUpDone = warmUpDone.getAsBoolean();
+        status.ready = isReady();
+        for (WWPassContext context : contexts.contexts(session.getContext().getRealm().getId())) {
+            WWPassStatus.Context report = new WWPassStatus.Context();
+            report.alias = context.alias;
+            X509Certificate certificate = context.credentials.certificate;
+            report.certificateSubject = certificate.getSubjectX500Principal().getName();
+            report.certificateNotAfter = certificate.getNotAfter().toInstant().toString();
+            report.certificateDaysLeft =
+                    Duration.between(Instant.now(), certificate.getNotAfter().toInstant()).toDays();
+            report.circuitBreaker = context.breaker.state().name();
+            if (context.breaker.state() == WWPassCircuitBreaker.State.OPEN)
+                status.openCircuitBreakers++;
+            report.httpExecutor = context.executorState();
+            report.pooledTickets = context.tickets.available();
+            report.requests = context.latencies.requests();
+            report.errors = context.latencies.errors();
+            report.latencyMillis = context.latencies.percentiles();
+            for (WWPassEndpoints.Endpoint endpoint : context.endpoints.all()) {
+                WWPassStatus.Endpoint endpointReport = new WWPassStatus.Endpoint();
+                endpointReport.url = endpoint.url;
+                endpointReport.latencyMillis = millis(endpoint.latencyNanos());
+                endpointReport.available = endpoint.isAvailable();
+                report.endpoints.add(endpointReport);
+            }
+            report.probe = probe ? probe(context).join() : lastProbe(context);
+            status.contexts.add(report);
+        }
+        return status;
+    }
+
+    private static WWPassStatus.Probe lastProbe(WWPassContext context) {
+        CompletableFuture<WWPassStatus.Probe> last = context.probe;
+        return last == null ? null : last.getNow(null);
+    }
+
+    // Probes are shared: callers within the probe interval get the result of the last one.
+    private CompletableFuture<WWPassStatus.Probe> probe(WWPassContext context) {
+        synchronized (context) {
+            long now = System.nanoTime();
+            if (context.probe != null && now - context.probedAt < settings.probeInterval.toNanos())
+                return context.probe;
+            context.probedAt = now;
+            WWPassStatus.Probe probe = new WWPassStatus.Probe();
+            probe.checkedAt = Instant.now().toString();
+            CompletableFuture<?>[] results = context.endpoints.all().stream()
+                    .map(endpoint -> probe(context, endpoint).thenAccept(result -> {
+                        synchronized (probe) {
+                            probe.results.add(result);
+                        }
+                    }))
+                    .toArray(CompletableFuture[]::new);
+            context.probe = CompletableFuture.allOf(results).thenApply(done -> probe);
+            return context.probe;
+        }
+    }
+
+    // Like connect(), any HTTP reply shows the endpoint is reachable over mutual TLS.
+    private static CompletableFuture<WWPassStatus.ProbeResult> probe(WWPassContext context,
+                                                                     WWPassEndpoints.Endpoint endpoint) {
+        WWPassStatus.ProbeResult result = new WWPassStatus.ProbeResult();
+        result.url = endpoint.url;
+        HttpRequest request = HttpRequest.newBuilder(URI.create(endpoint.url))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .timeout(context.requestTimeout)
+                .build();
+        long start = System.nanoTime();
+        return context.client.sendAsync(request, BodyHandlers.discarding())
+                .handle((response, e) -> {
+                    result.latencyMillis = millis(System.nanoTime() - start);
+                    if (e != null)
+                        result.error = String.valueOf(e instanceof CompletionException ? e.getCause() : e);
+                    else
+                        result.status = response.statusCode();
+                    return result;
+                });
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
     }
 }
@@ -0,0 +1,182 @@
+package com.wwpass.keycloak.connection;
+
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.keycloak.Config.Scope;
+
+/**
+ * Options of the WWPass connection provider, read from its SPI configuration scope.
+ */
+final class WWPassConnectionSettings {
+    static final String DEFAULT_SPFE_URL = "https://spfe.wwpass.com/";
+
+    final String spfeUrl;
+    final Set<String> spfeHosts;
+    final X509Certificate trustAnchor;
+    final Path credentialsDirectory;
+    final ProxySelector proxy;
+    final Duration connectTimeout;
+    final Duration requestTimeout;
+    final int maxThreads;
+    final boolean virtualThreads;
+    final int maxContexts;
+    final Duration contextIdleTimeout;
+    final Duration contextRevalidateInterval;
+    final Duration contextFailureTtl;
+    final Duration ticketPoolMinTtl;
+    final Duration ticketPoolDemandWindow;
+    final Duration ticketPoolRefreshInterval;
+    final int breakerWindow;
+    final int breakerMinCalls;
+    final int breakerFailureRate;
+    final Duration breakerSlowCall;
+    final Duration breakerOpenDuration;
+    final Duration endpointRetryDelay;
+    final int tlsSessionCacheSize;
+    final Duration tlsSessionTimeout;
+    final Duration probeInterval;
+    final boolean warmUp;
+    final boolean warmUpConnect;
+    final Duration warmUpTimeout;
+
+    private WWPassConnectionSettings(Scope config) {
+        String url = config == null ? DEFAULT_SPFE_URL : config.get("spfeUrl", DEFAULT_SPFE_URL);
+        spfeUrl = WWPassEndpoints.check(url.trim());
+        // Only the server decides which hosts realm administrators may send WWPass requests to.
+        spfeHosts = hosts(spfeUrl, config == null ? null : config.get("spfeHosts"));
+        // Overriding the trust anchor is meant for SPFE stand-ins signed by a test CA.
+        trustAnchor = WWPassConnectionProviderImpl.loadTrustAnchor(
+                config == null ? null : config.get("trustAnchor"));
+        // Only the server decides which files realm administrators may point credentials at.
+        credentialsDirectory = directory(config == null ? null : config.get("credentialsDirectory"));
+        proxy = proxy(config == null ? null : config.get("spfeProxy"));
+        connectTimeout = millis(config, "connectTimeout", 5000);
+        requestTimeout = millis(config, "requestTimeout", 10000);
+        maxThreads = positive(config, "maxThreads", 4);
+        // Only honoured where the runtime has virtual threads, maxThreads applies otherwise.
+        virtualThreads = WWPassThreads.VIRTUAL_AVAILABLE
+                && (config == null || config.getBoolean("virtualThreads", true));
+        maxContexts = positive(config, "maxContexts", 100);
+        contextIdleTimeout = millis(config, "contextIdleTimeout", 3600000);
+        contextRevalidateInterval = millis(config, "contextRevalidateInterval", 60000);
+        contextFailureTtl = millis(config, "contextFailureTtl", 5000);
+        ticketPoolMinTtl = millis(config, "ticketPoolMinTtl", 60000);
+        ticketPoolDemandWindow = millis(config, "ticketPoolDemandWindow", 60000);
+        ticketPoolRefreshInterval = Duration.ofMillis(Math.max(1000,
+                millis(config, "ticketPoolRefreshInterval", 10000).toMillis()));
+        breakerWindow = positive(config, "breakerWindow", 20);
+        breakerMinCalls = positive(config, "breakerMinCalls", 10);
+        breakerFailureRate = Math.min(100, positive(config, "breakerFailureRate", 50));
+        breakerSlowCall = millis(config, "breakerSlowCall", 5000);
+        breakerOpenDuration = millis(config, "breakerOpenDuration", 30000);
+        endpointRetryDelay = millis(config, "endpointRetryDelay", 30000);
+        tlsSessionCacheSize = positive(config, "tlsSessionCacheSize", 64);
+        tlsSessionTimeout = millis(config, "tlsSessionTimeout", 86400000);
+        probeInterval = millis(config, "probeInterval", 30000);
+        warmUp = config != null && config.getBoolean("warmUp", false);
+        warmUpConnect = config != null && config.getBoolean("warmUpConnect", false);
+        warmUpTimeout = millis(config, "warmUpTimeout", 0);
+    }
+
+    static WWPassConnectionSettings defaults() {
+        return new WWPassConnectionSettings(null);
+    }
+
+    static WWPassConnectionSettings fromConfig(Scope config) {
+        return new WWPassConnectionSettings(config);
+    }
+
+    // The host of spfeUrl, and the host names or *.domain patterns of the option.
+    private static Set<String> hosts(String spfeUrl, String hosts) {
+        Set<String> allowed = new LinkedHashSet<>();
+        allowed.add(URI.create(spfeUrl).getHost().toLowerCase(Locale.ROOT));
+        if (hosts != null) {
+            for (String host : hosts.split("[,\\s]+")) {
+                if (!host.isEmpty())
+                    allowed.add(host.toLowerCase(Locale.ROOT));
+            }
+        }
+        return Collections.unmodifiableSet(allowed);
+    }
+
+    /**
+     * Tells whether identity providers may list WWPass endpoints on the given host.
+     */
+    boolean isAllowedHost(String host) {
+        String name = host.toLowerCase(Locale.ROOT);
+        for (String allowed : spfeHosts) {
+            if (allowed.startsWith("*.") ? name.endsWith(allowed.substring(1)) : name.equals(allowed))
+                return true;
+        }
+        return false;
+    }
+
+    // Forward proxy as host:port, none by default.
+    private static ProxySelector proxy(String hostPort) {
+        if (hostPort == null || hostPort.isBlank())
+            return HttpClient.Builder.NO_PROXY;
+        int colon = hostPort.lastIndexOf(':');
+        if (colon <= 0)
+            throw new IllegalArgumentException("WWPass proxy must be host:port: " + hostPort);
+        return ProxySelector.of(InetSocketAddress.createUnresolved(
+                hostPort.substring(0, colon).trim(), Integer.parseInt(hostPort.substring(colon + 1).trim())));
+    }
+
+    /**
+     * Directory of the credential files of a realm, named after it inside the credentials directory,
+     * so a realm cannot refer to the files of another one. None when files are not enabled.
+     */
+    Path credentialsDirectory(String realmName) {
+        if (credentialsDirectory == null)
+            return null;
+        Path directory = credentialsDirectory.resolve(realmName).normalize();
+        return credentialsDirectory.equals(directory.getParent()) ? directory : null;
+    }
+
+    // No directory by default, which leaves inline and vault credentials only.
+    private static Path directory(String path) {
+        if (path == null || path.isBlank())
+            return null;
+        return Path.of(path.trim()).toAbsolutePath().normalize();
+    }
+
+    private static Duration millis(Scope config, String name, long defaultValue) {
+        return Duration.ofMillis(config == null ? defaultValue : config.getLong(name, defaultValue));
+    }
+
+    private static int positive(Scope config, String name, int defaultValue) {
+        return Math.max(1, config == null ? defaultValue : config.getInt(name, defaultValue));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("spfeUrl=%s, spfeHosts=%s, trustAnchor=%s, credentialsDirectory=%s, " +
+                        "connectTimeout=%dms, requestTimeout=%dms, maxThreads=%d, virtualThreads=%s, " +
+                        "maxContexts=%d, contextIdleTimeout=%dms, contextRevalidateInterval=%dms, " +
+                        "contextFailureTtl=%dms, " +
+                        "ticketPoolMinTtl=%dms, ticketPoolDemandWindow=%dms, ticketPoolRefreshInterval=%dms, " +
+                        "breakerWindow=%d, breakerMinCalls=%d, breakerFailureRate=%d%%, " +
+                        "breakerSlowCall=%dms, breakerOpenDuration=%dms, endpointRetryDelay=%dms, " +
+                        "tlsSessionCacheSize=%d, tlsSessionTimeout=%dms, probeInterval=%dms, " +
+                        "warmUp=%s, warmUpConnect=%s, warmUpTimeout=%dms",
+                spfeUrl, spfeHosts, trustAnchor.getSubjectX500Principal().getName(), credentialsDirectory,
+                connectTimeout.toMillis(), requestTimeout.toMillis(), maxThreads, virtualThreads,
+                maxContexts, contextIdleTimeout.toMillis(), contextRevalidateInterval.toMillis(),
+                contextFailureTtl.toMillis(),
+                ticketPoolMinTtl.toMillis(), ticketPoolDemandWindow.toMillis(), ticketPoolRefreshInterval.toMillis(),
+                breakerWindow, breakerMinCalls, breakerFailureRate,
+                breakerSlowCall.toMillis(), breakerOpenDuration.toMillis(), endpointRetryDelay.toMillis(),
+                tlsSessionCacheSize, tlsSessionTimeout.toMillis(), probeInterval.toMillis(),
+                warmUp, warmUpConnect, warmUpTimeout.toMillis());
+    }
+}
@@ -0,0 +1,147 @@
+package com.wwpass.keycloak.connection;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+
+final class WWPassContext {
+    final String realmName;
+    final String alias;
+    final String internalId;
+    final SSLContext sslContext;
+    final WWPassCredentials credentials;
+    final Map<String, String> config;
+    final HttpClient client;
+    final Duration requestTimeout;
+    final WWPassTicketPool tickets;
+    final WWPassCircuitBreaker breaker;
+    final WWPassEndpoints endpoints;
+    final WWPassLatencies latencies = new WWPassLatencies();
+    // Last active probe of the endpoints, started at most once per probe interval.
+    volatile CompletableFuture<WWPassStatus.Probe> probe;
+    volatile long probedAt;
+    private final ExecutorService executor;
+    // One reference held by the cache until the context is closed, and one per request in flight.
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile long lastAccess = System.nanoTime();
+    private volatile long validatedAt = lastAccess;
+
+    WWPassContext(String realmName,
+                  String configId,
+                  String internalId,
+                  SSLContext sslContext,
+                  WWPassCredentials credentials,
+                  Map<String, String> config,
+                  WWPassConnectionSettings settings) {
+        this.realmName = realmName;
+        this.alias = configId;
+        this.internalId = internalId;
+        this.sslContext = sslContext;
+        this.credentials = credentials;
+        this.config = new HashMap<>(config);
+        this.executor = WWPassThreads.executor(
+                "wwpass-http-" + configId, settings.maxThreads, settings.virtualThreads);
+        this.client = HttpClient.newBuilder()
+                .sslContext(sslContext)
+                .version(HttpClient.Version.HTTP_2)
+                .proxy(settings.proxy)
+                .connectTimeout(millis(config, "connectTimeout", settings.connectTimeout))
+                .executor(executor)
+                .build();
+        this.requestTimeout = millis(config, "requestTimeout", settings.requestTimeout);
+        this.breaker = new WWPassCircuitBreaker(realmName + "/" + configId, settings);
+        this.tickets = new WWPassTicketPool(realmName + "/" + configId, integer(config, "ticketPoolSize", 0), settings,
+                () -> breaker.state() == WWPassCircuitBreaker.State.CLOSED);
+        WWPassMetrics.circuitBreakerCreated(realmName, configId, breaker);
+        this.endpoints = WWPassEndpoints.parse(config.get("spfeEndpoints"), settings);
+    }
+
+    void touch() {
+        lastAccess = System.nanoTime();
+    }
+
+    long idleNanos(long now) {
+        return now - lastAccess;
+    }
+
+    // The IdP config is compared again only once the stamp is older than the interval,
+    // local IdP updates drop the context right away through provider events.
+    boolean isValidated(long intervalNanos) {
+        return System.nanoTime() - validatedAt < intervalNanos;
+    }
+
+    void validated() {
+        validatedAt = System.nanoTime();
+    }
+
+    // The HTTP client of a context can only fail locally by losing its executor, which closing it leads to.
+    boolean isUsable() {
+        return !closed.get() && !executor.isShutdown();
+    }
+
+    /**
+     * Counts a request in flight, closing the context waits for it before the executor is stopped.
+     *
+     * @return false if the context is closed and its last request already finished
+     */
+    boolean retain() {
+        while (true) {
+            int count = references.get();
+            if (count == 0)
+                return false;
+            if (references.compareAndSet(count, count + 1))
+                return true;
+        }
+    }
+
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            tickets.close();
+            executor.shutdown();
+        }
+    }
+
+    String executorState() {
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            return String.format("platform threads: %d active, %d started, %d max, %d queued",
+                    pool.getActiveCount(), pool.getPoolSize(), pool.getMaximumPoolSize(), pool.getQueue().size());
+        }
+        return "virtual threads";
+    }
+
+    // HttpClient has no close() before Java 21, stopping its executor lets pooled connections go once the client
+    // is unreachable. Requests in flight keep the executor until they finish, at the latest after their timeout.
+    void close() {
+        if (closed.compareAndSet(false, true)) {
+            WWPassMetrics.circuitBreakerClosed(realmName, alias, breaker);
+            release();
+        }
+    }
+
+    // Per-IdP overrides of provider options, blank or invalid values fall back to the default.
+    private static int integer(Map<String, String> config, String name, int defaultValue) {
+        String value = config.get(name);
+        if (value == null || value.isBlank())
+            return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static Duration millis(Map<String, String> config, String name, Duration defaultValue) {
+        int value = integer(config, name, -1);
+        return value > 0 ? Duration.ofMillis(value) : defaultValue;
+    }
+}
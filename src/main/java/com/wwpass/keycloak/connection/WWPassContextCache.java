@@ -0,0 +1,219 @@
+package com.wwpass.keycloak.connection;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Node-local cache of WWPass contexts keyed by realm ID and IdP alias.
+ * Entries idle for longer than the configured timeout are dropped on access,
+ * the least recently used entry is dropped when the cache grows over its size bound.
+ * Only one context is built at a time per key, concurrent callers wait for its result
+ * and a failed build is reported to callers for {@code contextFailureTtl} before it is retried.
+ */
+final class WWPassContextCache {
+    private static final Logger LOGGER = Logger.getLogger(WWPassContextCache.class);
+
+    private final ConcurrentMap<Key, WWPassContext> contexts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Key, Build> builds = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Key, Failure> failures = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long idleTimeoutNanos;
+    private final long failureTtlNanos;
+
+    WWPassContextCache(WWPassConnectionSettings settings) {
+        this.maxEntries = settings.maxContexts;
+        this.idleTimeoutNanos = settings.contextIdleTimeout.toNanos();
+        this.failureTtlNanos = settings.contextFailureTtl.toNanos();
+    }
+
+    WWPassContext get(String realmId, String alias) {
+        Key key = new Key(realmId, alias);
+        WWPassContext context = contexts.get(key);
+        if (context == null)
+            return null;
+        if (context.idleNanos(System.nanoTime()) > idleTimeoutNanos) {
+            remove(key, context);
+            return null;
+        }
+        context.touch();
+        return context;
+    }
+
+    /**
+     * Builds the context of a configuration, or waits for the build another caller started.
+     * A context cached by a build that finished since the caller looked is returned as is
+     * when {@code current} accepts it.
+     */
+    WWPassContext build(String realmId, String alias, Predicate<WWPassContext> current,
+                        Supplier<WWPassContext> builder) {
+        Key key = new Key(realmId, alias);
+        while (true) {
+            Failure failure = failures.get(key);
+            if (failure != null) {
+                if (!failure.isExpired(System.nanoTime()))
+                    throw failure.error;
+                failures.remove(key, failure);
+            }
+            Build build = builds.get(key);
+            if (build == null) {
+                Build own = new Build();
+                build = builds.putIfAbsent(key, own);
+                if (build == null)
+                    return own.run(key, current, builder);
+            }
+            try {
+                return build.result.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error)
+                    throw (Error) e.getCause();
+                throw e;
+            }
+        }
+    }
+
+    // For reporting, so entries are neither touched nor expired.
+    List<WWPassContext> contexts(String realmId) {
+        List<WWPassContext> found = new ArrayList<>();
+        contexts.forEach((key, context) -> {
+            if (key.realmId.equals(realmId))
+                found.add(context);
+        });
+        return found;
+    }
+
+    List<WWPassContext> all() {
+        return new ArrayList<>(contexts.values());
+    }
+
+    void put(String realmId, String alias, WWPassContext context) {
+        WWPassContext previous = contexts.put(new Key(realmId, alias), context);
+        if (previous != null && previous != context)
+            previous.close();
+        evict();
+    }
+
+    void invalidate(String realmId, String alias, String internalId) {
+        builds.keySet().removeIf(key -> key.realmId.equals(realmId) && key.alias.equals(alias));
+        failures.keySet().removeIf(key -> key.realmId.equals(realmId) && key.alias.equals(alias));
+        contexts.forEach((key, context) -> {
+            if (key.realmId.equals(realmId) &&
+                    (key.alias.equals(alias) || Objects.equals(context.internalId, internalId)))
+                remove(key, context);
+        });
+    }
+
+    void invalidateRealm(String realmId) {
+        builds.keySet().removeIf(key -> key.realmId.equals(realmId));
+        failures.keySet().removeIf(key -> key.realmId.equals(realmId));
+        contexts.forEach((key, context) -> {
+            if (key.realmId.equals(realmId))
+                remove(key, context);
+        });
+    }
+
+    void close() {
+        contexts.forEach(this::remove);
+    }
+
+    private void evict() {
+        long now = System.nanoTime();
+        contexts.forEach((key, context) -> {
+            if (context.idleNanos(now) > idleTimeoutNanos)
+                remove(key, context);
+        });
+        while (contexts.size() > maxEntries) {
+            contexts.entrySet().stream()
+                    .max(Comparator.comparingLong(e -> e.getValue().idleNanos(now)))
+                    .ifPresent(e -> remove(e.getKey(), e.getValue()));
+        }
+    }
+
+    private void remove(Key key, WWPassContext context) {
+        if (contexts.remove(key, context)) {
+            LOGGER.infov("Dropping WWPass context for {0}", key);
+            context.close();
+        }
+    }
+
+    private final class Build {
+        private final CompletableFuture<WWPassContext> result = new CompletableFuture<>();
+
+        private WWPassContext run(Key key, Predicate<WWPassContext> current, Supplier<WWPassContext> builder) {
+            try {
+                // The previous build may have finished between the caller's lookup and this one taking its place.
+                WWPassContext cached = contexts.get(key);
+                if (cached != null && current.test(cached)) {
+                    result.complete(cached);
+                    return cached;
+                }
+                WWPassContext context = builder.get();
+                put(key.realmId, key.alias, context);
+                result.complete(context);
+                return context;
+            } catch (Throwable e) {
+                if (e instanceof RuntimeException)
+                    failures.put(key, new Failure((RuntimeException) e, System.nanoTime()));
+                result.completeExceptionally(e);
+                throw e;
+            } finally {
+                builds.remove(key, this);
+            }
+        }
+    }
+
+    private final class Failure {
+        private final RuntimeException error;
+        private final long failedAt;
+
+        private Failure(RuntimeException error, long failedAt) {
+            this.error = error;
+            this.failedAt = failedAt;
+        }
+
+        private boolean isExpired(long now) {
+            return now - failedAt > failureTtlNanos;
+        }
+    }
+
+    private static final class Key {
+        private final String realmId;
+        private final String alias;
+
+        private Key(String realmId, String alias) {
+            this.realmId = realmId;
+            this.alias = alias;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return realmId.equals(other.realmId) && alias.equals(other.alias);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(realmId, alias);
+        }
+
+        @Override
+        public String toString() {
+            return realmId + "/" + alias;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.wwpass.keycloak.connection;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.keycloak.common.util.PemUtils;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.vault.VaultStringSecret;
+
+/**
+ * Where the client certificate and key of a WWPass configuration come from.
+ * <p>
+ * A PKCS#12 key store file is used when {@code keyStore} is set, otherwise the {@code certificate}
+ * and {@code privateKey} PEM values, each given inline, as a {@code file:} path or as a vault reference.
+ * The key store password may be a vault reference as well. File names are resolved against the
+ * directory of the realm in the {@code credentialsDirectory} of the server and may not lead outside of it,
+ * realm administrators only choose among the files the server operator put there for their realm.
+ */
+interface WWPassCredentialSource {
+    String FILE_PREFIX = "file:";
+
+    /**
+     * Raw credential material, its digest identifies the decoded credentials.
+     */
+    List<byte[]> read() throws IOException;
+
+    WWPassCredentials decode(List<byte[]> material, String digest) throws IOException, GeneralSecurityException;
+
+    /**
+     * Files on disk the credentials are read from, to reload them when they change.
+     */
+    List<Path> files();
+
+    static WWPassCredentialSource of(KeycloakSession session, String alias, Map<String, String> config,
+                                     Path directory) {
+        String keyStore = config.get("keyStore");
+        if (keyStore != null && !keyStore.isBlank())
+            return new KeyStoreFile(directory, file(directory, keyStore.trim(), alias),
+                    vault(session, config.get("keyStorePassword")));
+        String certificate = config.get("certificate");
+        String privateKey = config.get("privateKey");
+        if (certificate == null || certificate.isEmpty() || privateKey == null || privateKey.isEmpty())
+            throw new IllegalArgumentException(
+                    "WWPass Authentication requires private key and certificate for config: " + alias);
+        return new Pem(directory, vault(session, certificate), vault(session, privateKey), alias);
+    }
+
+    // Values other than vault references are returned as they are.
+    private static String vault(KeycloakSession session, String value) {
+        if (value == null)
+            return null;
+        try (VaultStringSecret secret = session.vault().getStringSecret(value)) {
+            return secret.get().orElseThrow(() ->
+                    new IllegalArgumentException("WWPass credential not found in vault: " + value));
+        }
+    }
+
+    // Without a credentials directory no file is read at all.
+    private static Path file(Path directory, String name, String alias) {
+        if (directory == null)
+            throw new IllegalArgumentException("WWPass credential files are not enabled on this server, " +
+                    "use inline or vault credentials for config: " + alias);
+        Path file = directory.resolve(name).normalize();
+        if (!file.startsWith(directory) || file.equals(directory))
+            throw new IllegalArgumentException(
+                    "WWPass credential file is outside of the credentials directory for config: " + alias);
+        return file;
+    }
+
+    // Checked again after following symbolic links, which may point anywhere.
+    private static byte[] readFile(Path directory, Path file) throws IOException {
+        Path real = file.toRealPath();
+        if (!real.startsWith(directory.toRealPath()))
+            throw new IOException("WWPass credential file leads outside of the credentials directory: " + file);
+        return Files.readAllBytes(real);
+    }
+
+    final class Pem implements WWPassCredentialSource {
+        private final Path directory;
+        private final String certificate;
+        private final String privateKey;
+        private final Path certificateFile;
+        private final Path privateKeyFile;
+
+        private Pem(Path directory, String certificate, String privateKey, String alias) {
+            this.directory = directory;
+            this.certificate = certificate;
+            this.privateKey = privateKey;
+            this.certificateFile = certificate.startsWith(FILE_PREFIX)
+                    ? file(directory, certificate.substring(FILE_PREFIX.length()), alias) : null;
+            this.privateKeyFile = privateKey.startsWith(FILE_PREFIX)
+                    ? file(directory, privateKey.substring(FILE_PREFIX.length()), alias) : null;
+        }
+
+        @Override
+        public List<byte[]> read() throws IOException {
+            return List.of(read(certificate, certificateFile), read(privateKey, privateKeyFile));
+        }
+
+        @Override
+        public WWPassCredentials decode(List<byte[]> material, String digest) {
+            X509Certificate cert = PemUtils.decodeCertificate(new String(material.get(0), StandardCharsets.US_ASCII));
+            PrivateKey key = PemUtils.decodePrivateKey(new String(material.get(1), StandardCharsets.US_ASCII));
+            return new WWPassCredentials(cert, key, digest);
+        }
+
+        @Override
+        public List<Path> files() {
+            List<Path> files = new ArrayList<>(2);
+            if (certificateFile != null)
+                files.add(certificateFile);
+            if (privateKeyFile != null)
+                files.add(privateKeyFile);
+            return files;
+        }
+
+        private byte[] read(String value, Path file) throws IOException {
+            if (file != null)
+                return readFile(directory, file);
+            return value.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    final class KeyStoreFile implements WWPassCredentialSource {
+        private final Path directory;
+        private final Path file;
+        private final char[] password;
+
+        private KeyStoreFile(Path directory, Path file, String password) {
+            this.directory = directory;
+            this.file = file;
+            this.password = password == null ? new char[0] : password.toCharArray();
+        }
+
+        @Override
+        public List<byte[]> read() throws IOException {
+            return List.of(readFile(directory, file));
+        }
+
+        // An EC key is preferred when the store holds several, ECDSA handshakes are cheaper
+        // than RSA ones on both sides. Otherwise the first key entry is used.
+        @Override
+        public WWPassCredentials decode(List<byte[]> material, String digest)
+                throws IOException, GeneralSecurityException {
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            keyStore.load(new ByteArrayInputStream(material.get(0)), password);
+            WWPassCredentials found = null;
+            for (String alias : Collections.list(keyStore.aliases())) {
+                if (!keyStore.isKeyEntry(alias))
+                    continue;
+                Key key = keyStore.getKey(alias, password);
+                Certificate cert = keyStore.getCertificate(alias);
+                if (!(key instanceof PrivateKey) || !(cert instanceof X509Certificate))
+                    continue;
+                if ("EC".equals(key.getAlgorithm()))
+                    return new WWPassCredentials((X509Certificate) cert, (PrivateKey) key, digest);
+                if (found == null)
+                    found = new WWPassCredentials((X509Certificate) cert, (PrivateKey) key, digest);
+            }
+            if (found == null)
+                throw new GeneralSecurityException("No private key entry in WWPass key store " + file);
+            return found;
+        }
+
+        @Override
+        public List<Path> files() {
+            return List.of(file);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.wwpass.keycloak.connection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Decoded WWPass credentials keyed by the digest of their material, so rebuilding a context
+ * for an unrelated config change or a reload of unchanged files does not decode the key again.
+ * Credential files in use are watched, a change in their directory reports each configuration
+ * reading from it. Watching the directory also catches files replaced through symbolic links,
+ * as with mounted Kubernetes secrets.
+ */
+final class WWPassCredentialStore {
+    private static final Logger LOGGER = Logger.getLogger(WWPassCredentialStore.class);
+
+    private final Map<String, WWPassCredentials> decoded;
+    private final BiConsumer<String, String> onChange;
+    // Watched directory -> realm ID and alias of the configurations reading files from it
+    private final Map<Path, Set<Map.Entry<String, String>>> watched = new ConcurrentHashMap<>();
+    private WatchService watchService;
+    private Thread watcher;
+
+    WWPassCredentialStore(WWPassConnectionSettings settings, BiConsumer<String, String> onChange) {
+        int maxEntries = settings.maxContexts;
+        this.decoded = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, WWPassCredentials> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.onChange = onChange;
+    }
+
+    WWPassCredentials load(WWPassCredentialSource source) throws IOException, GeneralSecurityException {
+        List<byte[]> material = source.read();
+        String digest = digest(material);
+        synchronized (decoded) {
+            WWPassCredentials credentials = decoded.get(digest);
+            if (credentials != null)
+                return credentials;
+        }
+        WWPassCredentials credentials = source.decode(material, digest);
+        synchronized (decoded) {
+            decoded.put(digest, credentials);
+        }
+        return credentials;
+    }
+
+    void watch(List<Path> files, String realmId, String alias) {
+        for (Path file : files) {
+            Path directory = file.toAbsolutePath().getParent();
+            if (directory == null)
+                continue;
+            Set<Map.Entry<String, String>> configs = watched.computeIfAbsent(directory, this::register);
+            if (configs != null)
+                configs.add(Map.entry(realmId, alias));
+        }
+    }
+
+    private Set<Map.Entry<String, String>> register(Path directory) {
+        try {
+            synchronized (this) {
+                if (watchService == null)
+                    start();
+            }
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            LOGGER.infov("Watching WWPass credentials in {0}", directory);
+            return ConcurrentHashMap.newKeySet();
+        } catch (IOException e) {
+            LOGGER.warnv(e, "Cannot watch WWPass credentials in {0}, changes need an IdP update", directory);
+            return null;
+        }
+    }
+
+    private void start() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        watcher = new Thread(this::run, "wwpass-credential-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                // Events are only a hint, reloading compares the digest of the files.
+                key.pollEvents();
+                Path directory = (Path) key.watchable();
+                Set<Map.Entry<String, String>> configs = watched.get(directory);
+                if (configs != null)
+                    configs.forEach(config -> onChange.accept(config.getKey(), config.getValue()));
+                if (!key.reset())
+                    watched.remove(directory);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closing
+        }
+    }
+
+    synchronized void close() {
+        if (watchService == null)
+            return;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close WWPass credential watcher", e);
+        }
+        watcher.interrupt();
+    }
+
+    private static String digest(List<byte[]> material) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (byte[] part : material) {
+                digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(part.length).array());
+                digest.update(part);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
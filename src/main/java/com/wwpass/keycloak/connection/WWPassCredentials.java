@@ -0,0 +1,20 @@
+package com.wwpass.keycloak.connection;
+
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+
+/**
+ * Decoded client certificate and key of a WWPass configuration,
+ * with the digest of the material they were decoded from.
+ */
+final class WWPassCredentials {
+    final X509Certificate certificate;
+    final PrivateKey privateKey;
+    final String digest;
+
+    WWPassCredentials(X509Certificate certificate, PrivateKey privateKey, String digest) {
+        this.certificate = certificate;
+        this.privateKey = privateKey;
+        this.digest = digest;
+    }
+}
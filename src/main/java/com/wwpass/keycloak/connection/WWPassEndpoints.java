@@ -0,0 +1,197 @@
+package com.wwpass.keycloak.connection;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.jboss.logging.Logger;
+
+/**
+ * SPFE endpoints of one configuration.
+ * Requests go to the available endpoint with the lowest smoothed latency, one request in
+ * {@value #EXPLORE_RATE} goes to another available endpoint to keep its latency current.
+ * An endpoint that failed to answer is skipped for {@code endpointRetryDelay}.
+ */
+final class WWPassEndpoints {
+    private static final Logger LOGGER = Logger.getLogger(WWPassEndpoints.class);
+    private static final int EXPLORE_RATE = 20;
+
+    static final class Endpoint {
+        final String url;
+        // Updated without locking, a lost sample only delays the average a little.
+        private volatile long latencyNanos;
+        private volatile long retryAt;
+
+        private Endpoint(String url) {
+            this.url = url;
+        }
+
+        private boolean isAvailable(long now) {
+            return now - retryAt >= 0;
+        }
+
+        long latencyNanos() {
+            return latencyNanos;
+        }
+
+        boolean isAvailable() {
+            return isAvailable(System.nanoTime());
+        }
+    }
+
+    private final Endpoint[] endpoints;
+    private final long retryDelayNanos;
+
+    private WWPassEndpoints(List<Endpoint> endpoints, long retryDelayNanos) {
+        this.endpoints = endpoints.toArray(new Endpoint[0]);
+        this.retryDelayNanos = retryDelayNanos;
+    }
+
+    /**
+     * Parses a comma or whitespace separated list of SPFE base URLs, an empty list means the server default.
+     * Identity providers with invalid entries cannot be saved, entries stored before that are skipped
+     * with a warning as long as one valid entry is left.
+     */
+    static WWPassEndpoints parse(String urls, WWPassConnectionSettings settings) {
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (String url : split(urls)) {
+            try {
+                endpoints.add(new Endpoint(check(url, settings)));
+            } catch (IllegalArgumentException e) {
+                LOGGER.warnv("Skipping WWPass endpoint: {0}", e.getMessage());
+            }
+        }
+        if (endpoints.isEmpty()) {
+            if (!split(urls).isEmpty())
+                throw new IllegalArgumentException("No valid WWPass endpoint in: " + urls);
+            endpoints.add(new Endpoint(settings.spfeUrl));
+        }
+        return new WWPassEndpoints(endpoints, settings.endpointRetryDelay.toNanos());
+    }
+
+    /**
+     * Checks every entry of a list of SPFE base URLs, as done when an identity provider is saved.
+     */
+    static void checkAll(String urls, WWPassConnectionSettings settings) {
+        for (String url : split(urls))
+            check(url, settings);
+    }
+
+    /**
+     * Returns an SPFE base URL as requests are built from it, ending with a slash.
+     *
+     * @throws IllegalArgumentException if it is not an absolute http or https URL with a host
+     */
+    static String check(String url) {
+        URI uri = uri(url);
+        String scheme = uri.getScheme();
+        if (!"https".equalsIgnoreCase(scheme) && !"http".equalsIgnoreCase(scheme))
+            throw new IllegalArgumentException("WWPass endpoint must be an absolute http or https URL: " + url);
+        return url.endsWith("/") ? url : url + "/";
+    }
+
+    /**
+     * Returns an SPFE base URL of an identity provider as requests are built from it, ending with a slash.
+     * Realm administrators set these, so only https URLs of the hosts the server allows are accepted.
+     *
+     * @throws IllegalArgumentException if it is not an absolute https URL of an allowed host
+     */
+    static String check(String url, WWPassConnectionSettings settings) {
+        URI uri = uri(url);
+        if (!"https".equalsIgnoreCase(uri.getScheme()))
+            throw new IllegalArgumentException("WWPass endpoint must be an absolute https URL: " + url);
+        if (!settings.isAllowedHost(uri.getHost()))
+            throw new IllegalArgumentException("WWPass endpoint host is not in spfeHosts of the server: " + url);
+        return url.endsWith("/") ? url : url + "/";
+    }
+
+    private static URI uri(String url) {
+        URI uri;
+        try {
+            uri = new URI(url);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid WWPass endpoint URL: " + url, e);
+        }
+        if (!uri.isAbsolute() || uri.getHost() == null || uri.getRawQuery() != null || uri.getRawFragment() != null)
+            throw new IllegalArgumentException("WWPass endpoint must be an absolute URL with a host: " + url);
+        return uri;
+    }
+
+    private static List<String> split(String urls) {
+        List<String> split = new ArrayList<>();
+        if (urls != null) {
+            for (String url : urls.split("[,\\s]+")) {
+                if (!url.isEmpty())
+                    split.add(url);
+            }
+        }
+        return split;
+    }
+
+    List<Endpoint> all() {
+        return List.of(endpoints);
+    }
+
+    Endpoint select() {
+        if (endpoints.length == 1)
+            return endpoints[0];
+        long now = System.nanoTime();
+        Endpoint best = fastest(now, null);
+        if (best == null)
+            return soonestRetry();
+        if (ThreadLocalRandom.current().nextInt(EXPLORE_RATE) == 0) {
+            Endpoint other = endpoints[ThreadLocalRandom.current().nextInt(endpoints.length)];
+            if (other.isAvailable(now))
+                return other;
+        }
+        return best;
+    }
+
+    /**
+     * Returns another endpoint to retry a request that could not reach {@code failed},
+     * or {@code null} if the error is not about reachability or no other endpoint is available.
+     */
+    Endpoint failover(Endpoint failed, WWPassException error) {
+        if (endpoints.length == 1 || !isUnreachable(error))
+            return null;
+        Endpoint next = fastest(System.nanoTime(), failed);
+        if (next != null)
+            LOGGER.warnv("WWPass endpoint {0} failed, retrying with {1}", failed.url, next.url);
+        return next;
+    }
+
+    void record(Endpoint endpoint, long nanos, WWPassException error) {
+        if (error != null && isUnreachable(error)) {
+            endpoint.retryAt = System.nanoTime() + retryDelayNanos;
+            return;
+        }
+        long latency = endpoint.latencyNanos;
+        endpoint.latencyNanos = latency == 0 ? nanos : (latency * 4 + nanos) / 5;
+    }
+
+    private Endpoint fastest(long now, Endpoint excluded) {
+        Endpoint best = null;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint != excluded && endpoint.isAvailable(now) &&
+                    (best == null || endpoint.latencyNanos < best.latencyNanos))
+                best = endpoint;
+        }
+        return best;
+    }
+
+    private Endpoint soonestRetry() {
+        Endpoint soonest = endpoints[0];
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.retryAt - soonest.retryAt < 0)
+                soonest = endpoint;
+        }
+        return soonest;
+    }
+
+    private static boolean isUnreachable(WWPassException error) {
+        return error.getReason() == WWPassException.Reason.UNAVAILABLE ||
+                error.getReason() == WWPassException.Reason.TIMEOUT;
+    }
+}
@@ -0,0 +1,31 @@
+package com.wwpass.keycloak.connection;
+
+/**
+ * Failure of a WWPass SPFE call: the service was unreachable, replied with an error
+ * or sent a reply that could not be parsed.
+ */
+public class WWPassException extends RuntimeException {
+    public enum Reason {
+        UNAVAILABLE,
+        TIMEOUT,
+        MALFORMED_REPLY,
+        ERROR_REPLY,
+        CIRCUIT_OPEN
+    }
+
+    private final Reason reason;
+
+    public WWPassException(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public WWPassException(Reason reason, String message, Throwable cause) {
+        super(message, cause);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
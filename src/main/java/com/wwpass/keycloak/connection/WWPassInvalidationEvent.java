@@ -0,0 +1,38 @@
+package com.wwpass.keycloak.connection;
+
+import org.keycloak.cluster.ClusterEvent;
+
+/**
+ * Cluster message asking every node to drop its cached WWPass context of an IdP,
+ * or of a whole realm when the alias is {@code null}.
+ */
+public final class WWPassInvalidationEvent implements ClusterEvent {
+    private static final long serialVersionUID = 1L;
+
+    private final String realmId;
+    private final String alias;
+    private final String internalId;
+
+    WWPassInvalidationEvent(String realmId, String alias, String internalId) {
+        this.realmId = realmId;
+        this.alias = alias;
+        this.internalId = internalId;
+    }
+
+    String getRealmId() {
+        return realmId;
+    }
+
+    String getAlias() {
+        return alias;
+    }
+
+    String getInternalId() {
+        return internalId;
+    }
+
+    @Override
+    public String toString() {
+        return alias == null ? realmId : realmId + "/" + alias;
+    }
+}
@@ -0,0 +1,75 @@
+package com.wwpass.keycloak.connection;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies of the most recent WWPass calls of a context and its error counts by reason,
+ * kept for the status endpoint. Percentiles are computed from a copy when asked for.
+ */
+final class WWPassLatencies {
+    private static final int SAMPLES = 512;
+
+    private final long[] samples = new long[SAMPLES];
+    private int next;
+    private int count;
+    private final LongAdder requests = new LongAdder();
+    private final Map<WWPassException.Reason, LongAdder> errors = new EnumMap<>(WWPassException.Reason.class);
+
+    WWPassLatencies() {
+        // Filled up front, so the map itself is never modified concurrently.
+        for (WWPassException.Reason reason : WWPassException.Reason.values())
+            errors.put(reason, new LongAdder());
+    }
+
+    void record(long nanos, WWPassException error) {
+        requests.increment();
+        if (error != null)
+            errors.get(error.getReason()).increment();
+        synchronized (samples) {
+            samples[next] = nanos;
+            next = (next + 1) % SAMPLES;
+            count = Math.min(count + 1, SAMPLES);
+        }
+    }
+
+    void rejected() {
+        errors.get(WWPassException.Reason.CIRCUIT_OPEN).increment();
+    }
+
+    long requests() {
+        return requests.sum();
+    }
+
+    Map<String, Long> errors() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        errors.forEach((reason, counter) -> counts.put(reason.name().toLowerCase(Locale.ROOT), counter.sum()));
+        return counts;
+    }
+
+    Map<String, Double> percentiles() {
+        long[] sorted;
+        synchronized (samples) {
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Map<String, Double> percentiles = new LinkedHashMap<>();
+        if (sorted.length == 0)
+            return percentiles;
+        Arrays.sort(sorted);
+        percentiles.put("p50", millis(sorted, 0.50));
+        percentiles.put("p90", millis(sorted, 0.90));
+        percentiles.put("p99", millis(sorted, 0.99));
+        percentiles.put("max", millis(sorted, 1.0));
+        return percentiles;
+    }
+
+    private static double millis(long[] sorted, double quantile) {
+        int index = Math.max(0, (int) Math.ceil(quantile * sorted.length) - 1);
+        return sorted[index] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
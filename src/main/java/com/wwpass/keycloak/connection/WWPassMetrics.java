@@ -0,0 +1,167 @@
+package com.wwpass.keycloak.connection;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * WWPass meters registered in the Micrometer global registry,
+ * which Keycloak exposes on its metrics endpoint when metrics are enabled.
+ */
+public final class WWPassMetrics {
+    private static final MeterRegistry REGISTRY = Metrics.globalRegistry;
+    private static final AtomicInteger IN_FLIGHT =
+            REGISTRY.gauge("wwpass.spfe.requests.inflight", new AtomicInteger());
+    private static final ConcurrentMap<String, AtomicReference<WWPassCircuitBreaker>> BREAKERS =
+            new ConcurrentHashMap<>();
+    private static final Counter CACHE_HITS = cacheCounter("hit");
+    private static final Counter CACHE_MISSES = cacheCounter("miss");
+    private static final Counter CACHE_REBUILDS = cacheCounter("rebuild");
+    private static final Timer CONTEXT_BUILD = Timer.builder("wwpass.context.build")
+            .description("Duration of WWPass SSL context creation")
+            .register(REGISTRY);
+
+    private WWPassMetrics() {
+    }
+
+    private static Counter cacheCounter(String result) {
+        return Counter.builder("wwpass.context.cache")
+                .description("WWPass SSL context cache lookups")
+                .tag("result", result)
+                .register(REGISTRY);
+    }
+
+    static long requestStarted() {
+        IN_FLIGHT.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    static void requestCompleted(WWPassContext context, String command, long start, WWPassException error) {
+        IN_FLIGHT.decrementAndGet();
+        Timer.builder("wwpass.spfe.requests")
+                .description("Latency of WWPass SPFE requests")
+                .tag("command", command)
+                .tag("realm", context.realmName)
+                .tag("alias", context.alias)
+                .tag("outcome", error == null ? "success" : "error")
+                .publishPercentileHistogram()
+                .register(REGISTRY)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (error != null) {
+            Counter.builder("wwpass.spfe.errors")
+                    .description("Failed WWPass SPFE requests by cause")
+                    .tag("command", command)
+                    .tag("realm", context.realmName)
+                    .tag("alias", context.alias)
+                    .tag("cause", error.getReason().name().toLowerCase(Locale.ROOT))
+                    .register(REGISTRY)
+                    .increment();
+        }
+    }
+
+    static void requestRejected(WWPassContext context, String command) {
+        Counter.builder("wwpass.spfe.errors")
+                .description("Failed WWPass SPFE requests by cause")
+                .tag("command", command)
+                .tag("realm", context.realmName)
+                .tag("alias", context.alias)
+                .tag("cause", "circuit_open")
+                .register(REGISTRY)
+                .increment();
+    }
+
+    // One gauge per realm and alias follows the breaker of the current context,
+    // a rebuilt context takes it over and a dropped one leaves it empty.
+    static void circuitBreakerCreated(String realm, String alias, WWPassCircuitBreaker breaker) {
+        BREAKERS.computeIfAbsent(realm + "/" + alias, key -> {
+            AtomicReference<WWPassCircuitBreaker> current = new AtomicReference<>();
+            Gauge.builder("wwpass.circuit.state", current, WWPassMetrics::circuitState)
+                    .description("WWPass circuit breaker state: 0 closed, 1 open, 2 half-open")
+                    .tag("realm", realm)
+                    .tag("alias", alias)
+                    .register(REGISTRY);
+            return current;
+        }).set(breaker);
+    }
+
+    static void circuitBreakerClosed(String realm, String alias, WWPassCircuitBreaker breaker) {
+        AtomicReference<WWPassCircuitBreaker> current = BREAKERS.get(realm + "/" + alias);
+        if (current != null)
+            current.compareAndSet(breaker, null);
+    }
+
+    private static double circuitState(AtomicReference<WWPassCircuitBreaker> current) {
+        WWPassCircuitBreaker breaker = current.get();
+        return breaker == null ? Double.NaN : breaker.state().ordinal();
+    }
+
+    static void circuitTransition(WWPassCircuitBreaker.State state) {
+        Counter.builder("wwpass.circuit.transitions")
+                .description("WWPass circuit breaker state changes")
+                .tag("state", state.name().toLowerCase(Locale.ROOT))
+                .register(REGISTRY)
+                .increment();
+    }
+
+    static void contextCacheHit() {
+        CACHE_HITS.increment();
+    }
+
+    static void contextCacheMiss() {
+        CACHE_MISSES.increment();
+    }
+
+    static void contextCacheRebuild() {
+        CACHE_REBUILDS.increment();
+    }
+
+    static void contextBuilt(long nanos) {
+        CONTEXT_BUILD.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    static void tlsConnection(String realm, String alias) {
+        Counter.builder("wwpass.tls.connections")
+                .description("TLS connections opened to WWPass")
+                .tag("realm", realm)
+                .tag("alias", alias)
+                .register(REGISTRY)
+                .increment();
+    }
+
+    // Connections less full handshakes were resumed.
+    static void tlsFullHandshake(String realm, String alias) {
+        Counter.builder("wwpass.tls.handshakes.full")
+                .description("Full TLS handshakes with WWPass, the other connections resumed a session")
+                .tag("realm", realm)
+                .tag("alias", alias)
+                .register(REGISTRY)
+                .increment();
+    }
+
+    public static void ticketRequest(String realm, boolean success) {
+        Counter.builder("wwpass.ticket.requests")
+                .description("Requests to the WWPass ticket endpoint")
+                .tag("realm", realm)
+                .tag("outcome", success ? "success" : "error")
+                .register(REGISTRY)
+                .increment();
+    }
+
+    public static void ticketRejected(String realm, String limit) {
+        Counter.builder("wwpass.ticket.requests")
+                .description("Requests to the WWPass ticket endpoint")
+                .tag("realm", realm)
+                .tag("outcome", "rejected-" + limit)
+                .register(REGISTRY)
+                .increment();
+    }
+}
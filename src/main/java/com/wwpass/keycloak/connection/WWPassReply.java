@@ -0,0 +1,82 @@
+package com.wwpass.keycloak.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reply of the SPFE {@code get} and {@code puid} commands, read with the Jackson streaming API.
+ */
+final class WWPassReply {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    static final int NO_TTL = -1;
+
+    final boolean result;
+    final String data;
+    final int ttl;
+
+    private WWPassReply(boolean result, String data, int ttl) {
+        this.result = result;
+        this.data = data;
+        this.ttl = ttl;
+    }
+
+    static WWPassReply parse(InputStream body) {
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            return parse(parser);
+        } catch (IOException e) {
+            throw new WWPassException(WWPassException.Reason.MALFORMED_REPLY, "Malformed WWPass reply", e);
+        }
+    }
+
+    static WWPassReply parse(byte[] body) {
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            return parse(parser);
+        } catch (IOException e) {
+            throw new WWPassException(WWPassException.Reason.MALFORMED_REPLY, "Malformed WWPass reply", e);
+        }
+    }
+
+    private static WWPassReply parse(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT)
+            throw new WWPassException(WWPassException.Reason.MALFORMED_REPLY, "Malformed WWPass reply: JSON object expected");
+        Boolean result = null;
+        String data = null;
+        int ttl = NO_TTL;
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (value == null)
+                break;
+            switch (name) {
+                case "result":
+                    result = value == JsonToken.VALUE_TRUE ||
+                            (value == JsonToken.VALUE_STRING && "true".equals(parser.getText()));
+                    break;
+                case "data":
+                    data = value.isScalarValue() && value != JsonToken.VALUE_NULL ? parser.getText() : null;
+                    parser.skipChildren();
+                    break;
+                case "ttl":
+                    ttl = parser.getValueAsInt(NO_TTL);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (token != JsonToken.END_OBJECT)
+            throw new WWPassException(WWPassException.Reason.MALFORMED_REPLY, "Malformed WWPass reply: truncated JSON object");
+        if (result == null)
+            throw new WWPassException(WWPassException.Reason.MALFORMED_REPLY, "Malformed WWPass reply: no result");
+        return new WWPassReply(result, data, ttl);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{result=%s, data=%s, ttl=%d}", result, data, ttl);
+    }
+}
@@ -0,0 +1,172 @@
+package com.wwpass.keycloak.connection;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.logging.Logger;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+/**
+ * A timed step of a WWPass login in W3C Trace Context terms.
+ * <p>
+ * Spans of one login share a trace ID: the login page keeps its trace context as an auth note,
+ * so the ticket request and the broker callback continue it, and the context is sent to WWPass
+ * in the {@code traceparent} header. Finished spans are written as JSON lines at debug level to the
+ * {@code com.wwpass.keycloak.trace} category, from where a log based collector can export them.
+ */
+public final class WWPassSpan {
+    private static final Logger TRACE = Logger.getLogger("com.wwpass.keycloak.trace");
+    public static final String HEADER = "traceparent";
+    private static final String SESSION_ATTRIBUTE = "wwpass.span";
+    private static final String NOTE = "wwpass.traceparent";
+
+    private final String traceId;
+    private final String spanId;
+    private final String parentId;
+    private final String name;
+    private final long startNanos = System.nanoTime();
+    private final long startEpochNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    private final Map<String, String> attributes = new LinkedHashMap<>(8);
+
+    private WWPassSpan(String traceId, String parentId, String name) {
+        this.traceId = traceId;
+        this.spanId = hex(ThreadLocalRandom.current().nextLong());
+        this.parentId = parentId;
+        this.name = name;
+    }
+
+    /**
+     * Starts a span continuing the given {@code traceparent} value, or a new trace when it is missing or invalid.
+     */
+    public static WWPassSpan start(String name, String traceparent) {
+        if (isValid(traceparent))
+            return new WWPassSpan(traceparent.substring(3, 35), traceparent.substring(36, 52), name);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new WWPassSpan(hex(random.nextLong()) + hex(random.nextLong()), null, name);
+    }
+
+    // Version "00", then lowercase hex trace ID (32), parent ID (16) and flags (2), separated by dashes.
+    // All-zero IDs are invalid.
+    private static boolean isValid(String traceparent) {
+        return traceparent != null && traceparent.length() == 55 && traceparent.startsWith("00-")
+                && traceparent.charAt(35) == '-' && traceparent.charAt(52) == '-'
+                && isHexId(traceparent, 3, 35) && isHexId(traceparent, 36, 52) && isHex(traceparent, 53, 55);
+    }
+
+    private static boolean isHexId(String value, int start, int end) {
+        if (!isHex(value, start, end))
+            return false;
+        for (int i = start; i < end; i++) {
+            if (value.charAt(i) != '0')
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isHex(String value, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f'))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Starts a child of the given span, or a new trace without one.
+     */
+    static WWPassSpan start(String name, WWPassSpan parent) {
+        return parent == null ? start(name, (String) null) : new WWPassSpan(parent.traceId, parent.spanId, name);
+    }
+
+    /**
+     * Starts a span for the current request, continuing the trace of the authentication session
+     * or else of the incoming request, and makes it the parent of WWPass calls made in this session.
+     */
+    public static WWPassSpan start(String name, KeycloakSession session, AuthenticationSessionModel authSession) {
+        String parent = authSession == null ? null : authSession.getAuthNote(NOTE);
+        if (parent == null)
+            parent = session.getContext().getRequestHeaders().getHeaderString(HEADER);
+        WWPassSpan span = start(name, parent);
+        session.setAttribute(SESSION_ATTRIBUTE, span);
+        return span;
+    }
+
+    public static WWPassSpan current(KeycloakSession session) {
+        Object span = session.getAttribute(SESSION_ATTRIBUTE);
+        return span instanceof WWPassSpan ? (WWPassSpan) span : null;
+    }
+
+    /**
+     * Lets later requests of the authentication session continue this trace.
+     */
+    public void link(AuthenticationSessionModel authSession) {
+        authSession.setAuthNote(NOTE, traceparent());
+    }
+
+    public String traceparent() {
+        return "00-" + traceId + "-" + spanId + "-01";
+    }
+
+    public WWPassSpan tag(String key, String value) {
+        if (value != null) {
+            synchronized (attributes) {
+                attributes.put(key, value);
+            }
+        }
+        return this;
+    }
+
+    public void end(Throwable error) {
+        if (!TRACE.isDebugEnabled())
+            return;
+        long endEpochNanos = startEpochNanos + (System.nanoTime() - startNanos);
+        StringBuilder line = new StringBuilder(256).append("{\"traceId\":\"");
+        escape(line, traceId);
+        line.append("\",\"spanId\":\"");
+        escape(line, spanId);
+        if (parentId != null) {
+            line.append("\",\"parentSpanId\":\"");
+            escape(line, parentId);
+        }
+        line.append("\",\"name\":\"");
+        escape(line, name);
+        line.append("\",\"startTimeUnixNano\":").append(startEpochNanos)
+                .append(",\"endTimeUnixNano\":").append(endEpochNanos)
+                .append(",\"status\":\"").append(error == null ? "OK" : "ERROR")
+                .append("\",\"attributes\":{");
+        synchronized (attributes) {
+            if (error != null)
+                attributes.put("error", String.valueOf(error.getMessage()));
+            String separator = "";
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                line.append(separator).append('"').append(attribute.getKey()).append("\":\"");
+                escape(line, attribute.getValue());
+                line.append('"');
+                separator = ",";
+            }
+        }
+        TRACE.debug(line.append("}}"));
+    }
+
+    private static void escape(StringBuilder line, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                line.append('\\').append(c);
+            else if (c < 0x20)
+                line.append(String.format("\\u%04x", (int) c));
+            else
+                line.append(c);
+        }
+    }
+
+    private static String hex(long value) {
+        String hex = Long.toHexString(value);
+        return hex.length() == 16 ? hex : "0".repeat(16 - hex.length()) + hex;
+    }
+}
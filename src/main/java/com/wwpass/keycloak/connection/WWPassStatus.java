@@ -0,0 +1,48 @@
+package com.wwpass.keycloak.connection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State of the WWPass connection layer of one realm on this node, as reported by the status endpoint.
+ */
+public final class WWPassStatus {
+    public boolean ready;
+    public boolean warmUpDone;
+    public int openCircuitBreakers;
+    public final List<Context> contexts = new ArrayList<>();
+
+    public static final class Context {
+        public String alias;
+        public String certificateSubject;
+        public String certificateNotAfter;
+        public long certificateDaysLeft;
+        public String circuitBreaker;
+        public String httpExecutor;
+        public int pooledTickets;
+        public long requests;
+        public Map<String, Long> errors;
+        public Map<String, Double> latencyMillis;
+        public final List<Endpoint> endpoints = new ArrayList<>();
+        public Probe probe;
+    }
+
+    public static final class Endpoint {
+        public String url;
+        public double latencyMillis;
+        public boolean available;
+    }
+
+    public static final class Probe {
+        public String checkedAt;
+        public final List<ProbeResult> results = new ArrayList<>();
+    }
+
+    public static final class ProbeResult {
+        public String url;
+        public Integer status;
+        public double latencyMillis;
+        public String error;
+    }
+}
@@ -0,0 +1,73 @@
+package com.wwpass.keycloak.connection;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Executors for outbound WWPass calls. On Java 21 and later every task gets its own virtual thread,
+ * on older runtimes a bounded pool of daemon platform threads is used.
+ * The Java 21 API is reached through reflection as the plugin is built for Java 17.
+ */
+final class WWPassThreads {
+    private static final Logger LOGGER = Logger.getLogger(WWPassThreads.class);
+
+    private static final Method OF_VIRTUAL = method(Thread.class, "ofVirtual");
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR =
+            method(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+
+    static final boolean VIRTUAL_AVAILABLE = OF_VIRTUAL != null && NEW_THREAD_PER_TASK_EXECUTOR != null;
+
+    private WWPassThreads() {
+    }
+
+    static ExecutorService executor(String name, int maxThreads, boolean virtual) {
+        if (virtual && VIRTUAL_AVAILABLE) {
+            try {
+                return virtualExecutor(name);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOGGER.warn("Virtual threads are not usable, falling back to a platform thread pool", e);
+            }
+        }
+        return platformExecutor(name, maxThreads);
+    }
+
+    // Thread.ofVirtual().name(name + "-", 1).factory()
+    private static ExecutorService virtualExecutor(String name) throws ReflectiveOperationException {
+        Object builder = OF_VIRTUAL.invoke(null);
+        Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+        builder = builderType.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+        ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+    }
+
+    private static ExecutorService platformExecutor(String name, int maxThreads) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                maxThreads, maxThreads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable,
+                            String.format("%s-%d", name, counter.incrementAndGet()));
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static Method method(Class<?> type, String name, Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.wwpass.keycloak.connection;
+
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import org.jboss.logging.Logger;
+
+import com.wwpass.keycloak.ticket.WWPassTicket;
+
+/**
+ * Pool of pre-issued WWPass tickets for one configuration.
+ * Every ticket is handed out once, tickets with less than the minimal remaining lifetime are dropped.
+ * The pool is refilled up to the recent demand after every ticket taken and every {@code ticketPoolRefreshInterval}
+ * by the maintenance task, which also replaces tickets that would go below the minimal lifetime before its next run.
+ * Recent demand is the number of tickets taken during the current or the last demand window, halved for every
+ * window without requests, so the pool is still filled when a spike follows a lull.
+ * Nothing is fetched while the circuit breaker of the configuration is not closed, logins probe WWPass instead.
+ */
+final class WWPassTicketPool {
+    private static final Logger LOGGER = Logger.getLogger(WWPassTicketPool.class);
+
+    private final String name;
+    private final int maxSize;
+    private final long minRemainingNanos;
+    private final long demandWindowNanos;
+    private final long refreshNanos;
+    private final Deque<PooledTicket> tickets = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger available = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private final AtomicInteger currentDemand = new AtomicInteger();
+    private volatile int previousDemand;
+    private volatile Supplier<CompletableFuture<WWPassTicket>> fetcher;
+    private final BooleanSupplier fetching;
+    private final AtomicBoolean failing = new AtomicBoolean();
+    private volatile boolean closed;
+
+    /**
+     * @param fetching tells whether tickets may be fetched, false while the circuit breaker is not closed
+     */
+    WWPassTicketPool(String name, int maxSize, WWPassConnectionSettings settings, BooleanSupplier fetching) {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.fetching = fetching;
+        this.minRemainingNanos = settings.ticketPoolMinTtl.toNanos();
+        this.demandWindowNanos = settings.ticketPoolDemandWindow.toNanos();
+        this.refreshNanos = settings.ticketPoolRefreshInterval.toNanos();
+    }
+
+    /**
+     * Returns a pooled ticket or {@code null} if none is available, and schedules a refill.
+     */
+    WWPassTicket take(Supplier<CompletableFuture<WWPassTicket>> fetcher) {
+        if (maxSize <= 0)
+            return null;
+        this.fetcher = fetcher;
+        recordDemand();
+        WWPassTicket ticket = poll();
+        refill(fetcher);
+        return ticket;
+    }
+
+    /**
+     * Replaces tickets close to the minimal remaining lifetime and refills the pool to the recent demand.
+     * Called periodically, does nothing until a ticket was asked for.
+     */
+    void refresh() {
+        Supplier<CompletableFuture<WWPassTicket>> fetcher = this.fetcher;
+        if (maxSize <= 0 || closed || fetcher == null)
+            return;
+        long now = System.nanoTime();
+        rollWindow(now);
+        // Tickets of a configuration share one lifetime, so the oldest are at the head.
+        PooledTicket first;
+        while ((first = tickets.peekFirst()) != null && first.expiresAt - now <= minRemainingNanos + refreshNanos) {
+            if (tickets.removeFirstOccurrence(first))
+                available.decrementAndGet();
+        }
+        refill(fetcher);
+    }
+
+    int available() {
+        return available.get();
+    }
+
+    void close() {
+        closed = true;
+        tickets.clear();
+        available.set(0);
+    }
+
+    private WWPassTicket poll() {
+        long now = System.nanoTime();
+        PooledTicket pooled;
+        while ((pooled = tickets.pollFirst()) != null) {
+            available.decrementAndGet();
+            long remaining = pooled.expiresAt - now;
+            if (remaining > minRemainingNanos)
+                return new WWPassTicket(pooled.ticket, (int) TimeUnit.NANOSECONDS.toSeconds(remaining));
+        }
+        return null;
+    }
+
+    private void recordDemand() {
+        rollWindow(System.nanoTime());
+        currentDemand.incrementAndGet();
+    }
+
+    private void rollWindow(long now) {
+        long start = windowStart.get();
+        if (now - start <= demandWindowNanos || !windowStart.compareAndSet(start, now))
+            return;
+        int demand = currentDemand.getAndSet(0);
+        long idleWindows = (now - start) / demandWindowNanos - 1;
+        previousDemand = Math.max(demand, idleWindows >= 31 ? 0 : previousDemand >> (idleWindows + 1));
+    }
+
+    private int targetSize() {
+        return Math.min(maxSize, Math.max(currentDemand.get(), previousDemand));
+    }
+
+    private void refill(Supplier<CompletableFuture<WWPassTicket>> fetcher) {
+        while (!closed && fetching.getAsBoolean()) {
+            int requested = pending.get();
+            if (requested + available.get() >= targetSize())
+                return;
+            if (!pending.compareAndSet(requested, requested + 1))
+                continue;
+            long issuedAt = System.nanoTime();
+            CompletableFuture<WWPassTicket> fetch = fetcher.get();
+            fetch.whenComplete((ticket, error) -> {
+                pending.decrementAndGet();
+                if (error != null) {
+                    failed(error);
+                    return;
+                }
+                if (failing.compareAndSet(true, false))
+                    LOGGER.infov("Prefetching WWPass tickets for {0} again", name);
+                if (!closed) {
+                    tickets.addLast(new PooledTicket(ticket.ticket,
+                            issuedAt + TimeUnit.SECONDS.toNanos(ticket.ttl)));
+                    available.incrementAndGet();
+                }
+            });
+            // A fetch that failed right away, rejected before reaching WWPass, would fail again at once.
+            if (fetch.isCompletedExceptionally())
+                return;
+        }
+    }
+
+    // Warns once when prefetching starts failing, further failures are at debug level:
+    // every login refills the pool, so an outage would otherwise log a stack trace per login.
+    private void failed(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (failing.compareAndSet(false, true))
+            LOGGER.warnv("Failed to prefetch WWPass tickets for {0}: {1}", name, cause.getMessage());
+        else
+            LOGGER.debugv(cause, "Failed to prefetch WWPass ticket for {0}", name);
+    }
+
+    private static final class PooledTicket {
+        private final String ticket;
+        private final long expiresAt;
+
+        private PooledTicket(String ticket, long expiresAt) {
+            this.ticket = ticket;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.wwpass.keycloak.connection;
+
+import java.net.Socket;
+import java.security.KeyManagementException;
+import java.security.SecureRandom;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+
+/**
+ * Counts TLS connections to WWPass and the full handshakes among them.
+ * The server certificate is only checked in a full handshake, an abbreviated (resumed) one
+ * reuses the session and skips it, so counting calls of the trust manager tells them apart:
+ * resumed handshakes are connections less full handshakes.
+ */
+final class WWPassTls {
+    private WWPassTls() {
+    }
+
+    static TrustManager[] countingTrustManagers(TrustManager[] trustManagers, String realm, String alias) {
+        TrustManager[] counting = trustManagers.clone();
+        for (int i = 0; i < counting.length; i++) {
+            if (counting[i] instanceof X509ExtendedTrustManager)
+                counting[i] = new CountingTrustManager((X509ExtendedTrustManager) counting[i], realm, alias);
+        }
+        return counting;
+    }
+
+    // The HTTP client creates one engine per connection.
+    static SSLContext countingContext(SSLContext context, String realm, String alias) {
+        return new CountingContext(context, realm, alias);
+    }
+
+    private static final class CountingContext extends SSLContext {
+        private CountingContext(SSLContext delegate, String realm, String alias) {
+            super(new CountingSpi(delegate, realm, alias), delegate.getProvider(), delegate.getProtocol());
+        }
+    }
+
+    private static final class CountingSpi extends SSLContextSpi {
+        private final SSLContext delegate;
+        private final String realm;
+        private final String alias;
+
+        private CountingSpi(SSLContext delegate, String realm, String alias) {
+            this.delegate = delegate;
+            this.realm = realm;
+            this.alias = alias;
+        }
+
+        @Override
+        protected void engineInit(KeyManager[] km, TrustManager[] tm, SecureRandom random)
+                throws KeyManagementException {
+            delegate.init(km, tm, random);
+        }
+
+        @Override
+        protected SSLSocketFactory engineGetSocketFactory() {
+            return delegate.getSocketFactory();
+        }
+
+        @Override
+        protected SSLServerSocketFactory engineGetServerSocketFactory() {
+            return delegate.getServerSocketFactory();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine() {
+            WWPassMetrics.tlsConnection(realm, alias);
+            return delegate.createSSLEngine();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine(String host, int port) {
+            WWPassMetrics.tlsConnection(realm, alias);
+            return delegate.createSSLEngine(host, port);
+        }
+
+        @Override
+        protected SSLSessionContext engineGetServerSessionContext() {
+            return delegate.getServerSessionContext();
+        }
+
+        @Override
+        protected SSLSessionContext engineGetClientSessionContext() {
+            return delegate.getClientSessionContext();
+        }
+
+        @Override
+        protected SSLParameters engineGetDefaultSSLParameters() {
+            return delegate.getDefaultSSLParameters();
+        }
+
+        @Override
+        protected SSLParameters engineGetSupportedSSLParameters() {
+            return delegate.getSupportedSSLParameters();
+        }
+    }
+
+    private static final class CountingTrustManager extends X509ExtendedTrustManager {
+        private final X509ExtendedTrustManager delegate;
+        private final String realm;
+        private final String alias;
+
+        private CountingTrustManager(X509ExtendedTrustManager delegate, String realm, String alias) {
+            this.delegate = delegate;
+            this.realm = realm;
+            this.alias = alias;
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine)
+                throws CertificateException {
+            WWPassMetrics.tlsFullHandshake(realm, alias);
+            delegate.checkServerTrusted(chain, authType, engine);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket)
+                throws CertificateException {
+            WWPassMetrics.tlsFullHandshake(realm, alias);
+            delegate.checkServerTrusted(chain, authType, socket);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            WWPassMetrics.tlsFullHandshake(realm, alias);
+            delegate.checkServerTrusted(chain, authType);
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine)
+                throws CertificateException {
+            delegate.checkClientTrusted(chain, authType, engine);
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket)
+                throws CertificateException {
+            delegate.checkClientTrusted(chain, authType, socket);
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            delegate.checkClientTrusted(chain, authType);
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return delegate.getAcceptedIssuers();
+        }
+    }
+}
@@ -1,5 +1,11 @@
 package com.wwpass.keycloak.idp;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.Context;
@@ -19,18 +25,29 @@ import org.keycloak.events.EventType;
 import org.keycloak.forms.login.LoginFormsProvider;
 import org.keycloak.models.FederatedIdentityModel;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.RealmModel;
 import org.keycloak.services.ErrorPage;
 import org.keycloak.services.messages.Messages;
 import org.keycloak.sessions.AuthenticationSessionModel;
 
+import com.wwpass.keycloak.assets.WWPassAssets;
+import com.wwpass.keycloak.assets.WWPassAssetsFactory;
 import com.wwpass.keycloak.connection.WWPassConnectionProvider;
+import com.wwpass.keycloak.connection.WWPassException;
+import com.wwpass.keycloak.connection.WWPassMetrics;
+import com.wwpass.keycloak.connection.WWPassSpan;
+import com.wwpass.keycloak.ticket.WWPassTicket;
+import com.wwpass.keycloak.ticket.WWPassTicketNotes;
 
 public final class WWPassIdentityProvider extends AbstractIdentityProvider<WWPassProviderModel> {
     private static final Logger LOGGER = Logger.getLogger(WWPassIdentityProvider.class);
 
-    WWPassIdentityProvider(KeycloakSession session, WWPassProviderModel config) {
+    private final WWPassTicketCache tickets;
+
+    WWPassIdentityProvider(KeycloakSession session, WWPassProviderModel config, WWPassTicketCache tickets) {
         super(session, config);
+        this.tickets = tickets;
     }
 
     @Override
@@ -50,14 +67,95 @@ public final class WWPassIdentityProvider extends AbstractIdentityProvider<WWPas
     @Override
     public Response performLogin(AuthenticationRequest request) {
         LOGGER.info("Performing WWPass login");
-        LoginFormsProvider form = session.getProvider(LoginFormsProvider.class);
         WWPassProviderModel cfg = this.getConfig();
+        // Each login page starts a trace, the ticket request and the callback continue it.
+        WWPassSpan span = WWPassSpan.start("wwpass.login", session, null)
+                .tag("realm", session.getContext().getRealm().getName())
+                .tag("alias", cfg.getAlias());
+        span.link(request.getAuthenticationSession());
+        try {
+            Response challenge = loginForm(request, cfg);
+            span.end(null);
+            return challenge;
+        } catch (RuntimeException e) {
+            span.end(e);
+            throw e;
+        }
+    }
+
+    private Response loginForm(AuthenticationRequest request, WWPassProviderModel cfg) {
+        // Started first, so the WWPass round trip overlaps preparing the form.
+        CompletableFuture<WWPassTicket> ticketRequest = cfg.isEmbedTicket() ? requestTicket(cfg.getAlias()) : null;
+        LoginFormsProvider form = session.getProvider(LoginFormsProvider.class);
+        AuthenticationSessionModel authSession = request.getAuthenticationSession();
         form.setAttribute("providerID", cfg.getAlias());
         form.setAttribute("state", request.getState().getEncoded());
+        form.setAttribute("tabId", authSession.getTabId());
+        // Relative to /realms/<realm>/broker/<alias>/login like the ticket URL of the page,
+        // so assets load from the host the page came from.
+        form.setAttribute("assetsPath", "../../" + WWPassAssetsFactory.ID + "/" + WWPassAssets.get().version());
+        if (ticketRequest != null) {
+            WWPassTicket ticket = awaitTicket(ticketRequest, cfg.getEmbedTicketTimeout());
+            if (ticket == null && !ticketRequest.isCompletedExceptionally()) {
+                keepLateTicket(ticketRequest, authSession, cfg.getAlias());
+            } else if (ticket != null) {
+                // Lets /wwpass-ticket hand the same ticket out again while it is fresh.
+                WWPassTicketNotes.store(authSession, cfg.getAlias(), ticket);
+                form.setAttribute("ticket", ticket.ticket);
+                form.setAttribute("ticketTtl", ticket.ttl);
+            }
+        }
         Response challenge = form.createForm("wwpass-login.ftl");
         return challenge;
     }
 
+    private CompletableFuture<WWPassTicket> requestTicket(String alias) {
+        try {
+            return session.getProvider(WWPassConnectionProvider.class).getTicketAsync(alias);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // Without a ticket in time the page falls back to requesting one from /wwpass-ticket.
+    private WWPassTicket awaitTicket(CompletableFuture<WWPassTicket> ticketRequest, long timeoutMillis) {
+        String realm = session.getContext().getRealm().getName();
+        try {
+            // Without a timeout the page only takes a ticket that is ready, such as one from the pool.
+            WWPassTicket ticket = timeoutMillis > 0 || ticketRequest.isDone()
+                    ? ticketRequest.get(timeoutMillis, TimeUnit.MILLISECONDS) : null;
+            if (ticket == null)
+                return null;
+            WWPassMetrics.ticketRequest(realm, true);
+            return ticket;
+        } catch (TimeoutException e) {
+            LOGGER.debugf("WWPass ticket not ready in %d ms, leaving it to the browser", timeoutMillis);
+        } catch (ExecutionException e) {
+            WWPassMetrics.ticketRequest(realm, false);
+            LOGGER.warn("Failed to get WWPass ticket for the login page", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    // A ticket that misses the page is still good for the first request of the browser to /wwpass-ticket,
+    // unless that request got its own ticket already. The session of this request is gone by then.
+    private void keepLateTicket(CompletableFuture<WWPassTicket> ticketRequest,
+                                AuthenticationSessionModel authSession, String alias) {
+        String realmId = session.getContext().getRealm().getId();
+        String rootSessionId = authSession.getParentSession().getId();
+        String tabId = authSession.getTabId();
+        KeycloakSessionFactory factory = session.getKeycloakSessionFactory();
+        ticketRequest.thenAcceptAsync(ticket -> {
+            try {
+                WWPassTicketNotes.storeIfAbsent(factory, realmId, rootSessionId, tabId, alias, ticket);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Failed to keep late WWPass ticket in the authentication session", e);
+            }
+        }, WWPassTicketNotes.executor(session));
+    }
+
     protected static final class Endpoint {
         private final WWPassIdentityProvider parent;
         private final AuthenticationCallback callback;
@@ -81,6 +179,14 @@ public final class WWPassIdentityProvider extends AbstractIdentityProvider<WWPas
         public Response authResponse(@QueryParam("wwp_ticket") String ticket,
                                      @QueryParam("state") String state,
                                      @QueryParam("wwp_status") int status) {
+            Response response = authenticate(ticket, state, status);
+            WWPassSpan span = WWPassSpan.current(session);
+            if (span != null)
+                span.tag("httpStatus", String.valueOf(response.getStatus())).end(null);
+            return response;
+        }
+
+        private Response authenticate(String ticket, String state, int status) {
             if (state == null) {
                 return errorWWPassLogin("Login session expired");
             }
@@ -88,10 +194,25 @@ public final class WWPassIdentityProvider extends AbstractIdentityProvider<WWPas
                 AuthenticationSessionModel authSession =
                         this.callback.getAndVerifyAuthenticationSession(state);
                 session.getContext().setAuthenticationSession(authSession);
-
-                if (status == 200) {
-                    String puid = session.getProvider(WWPassConnectionProvider.class)
-                                    .getPUID(parent.getConfig().getAlias(), ticket);
+                WWPassSpan.start("wwpass.callback", session, authSession)
+                        .tag("realm", session.getContext().getRealm().getName())
+                        .tag("alias", parent.getConfig().getAlias())
+                        .tag("wwpStatus", String.valueOf(status));
+                WWPassTicketNotes.forget(authSession, parent.getConfig().getAlias());
+
+                if (status == 200 && ticket != null) {
+                    // Browser retries of the callback get the PUID resolved for the same session,
+                    // a ticket already presented by another session is refused without asking WWPass.
+                    String sessionKey = authSession.getParentSession().getId() + "." + authSession.getTabId();
+                    String alias = parent.getConfig().getAlias();
+                    CompletableFuture<String> puidRequest = parent.tickets.resolve(
+                            session.getContext().getRealm().getId(), alias, ticket, sessionKey,
+                            () -> session.getProvider(WWPassConnectionProvider.class).getPUIDAsync(alias, ticket));
+                    if (puidRequest == null) {
+                        LOGGER.warn("WWPass ticket reused by another authentication session");
+                        return errorWWPassLogin("wwpass-ticket-reused");
+                    }
+                    String puid = puidRequest.join();
                     LOGGER.info(String.format("PUID: %s", puid));
                     BrokeredIdentityContext federatedIdentity =
                             new BrokeredIdentityContext(puid);
@@ -106,6 +227,12 @@ public final class WWPassIdentityProvider extends AbstractIdentityProvider<WWPas
 
                 return callback.error("WWPass authentication failed");
             } catch (Exception e) {
+                Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                if (cause instanceof WWPassException &&
+                        ((WWPassException) cause).getReason() == WWPassException.Reason.CIRCUIT_OPEN) {
+                    LOGGER.warn(cause.getMessage());
+                    return errorWWPassLogin("wwpass-unavailable");
+                }
                 LOGGER.error("Failed to verify WWPass authentication", e);
             }
             return errorWWPassLogin(Messages.IDENTITY_PROVIDER_UNEXPECTED_ERROR);
@@ -5,16 +5,24 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
+import org.keycloak.Config;
 import org.keycloak.broker.provider.AbstractIdentityProviderFactory;
 import org.keycloak.models.IdentityProviderModel;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.provider.ProviderFactory;
 import org.keycloak.provider.ProviderConfigProperty;
 import org.keycloak.provider.ProviderConfigurationBuilder;
 import org.keycloak.util.JsonSerialization;
 
+import com.wwpass.keycloak.connection.WWPassConnectionFactory;
+import com.wwpass.keycloak.connection.WWPassConnectionProvider;
+
 public final class WWPassIdentityProviderFactory extends AbstractIdentityProviderFactory<WWPassIdentityProvider> {
 
     public static final String PROVIDER_ID = "wwpass";
+    private WWPassTicketCache tickets = new WWPassTicketCache(null);
+    private WWPassConnectionFactory connections;
 
     @Override
     public String getName() {
@@ -23,12 +31,25 @@ public final class WWPassIdentityProviderFactory extends AbstractIdentityProvide
 
     @Override
     public WWPassIdentityProvider create(KeycloakSession session, IdentityProviderModel model) {
-        return new WWPassIdentityProvider(session, new WWPassProviderModel(model));
+        return new WWPassIdentityProvider(session, new WWPassProviderModel(model), tickets);
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+        tickets = new WWPassTicketCache(config);
+    }
+
+    // Endpoints are checked against the server options of the connection provider before a save.
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        ProviderFactory<WWPassConnectionProvider> found = factory.getProviderFactory(WWPassConnectionProvider.class);
+        if (found instanceof WWPassConnectionFactory)
+            connections = (WWPassConnectionFactory) found;
     }
 
     @Override
     public WWPassProviderModel createConfig() {
-        return new WWPassProviderModel();
+        return new WWPassProviderModel(connections);
     }
 
     @Override
@@ -44,18 +65,60 @@ public final class WWPassIdentityProviderFactory extends AbstractIdentityProvide
     @Override
     public List<ProviderConfigProperty> getConfigProperties() {
         return ProviderConfigurationBuilder.create()
-                .property().required(true).name("certificate")
+                .property().name("certificate")
                 .label("Certificate")
-                .helpText("WWPass registration client certificate on BASE64")
+                .helpText("WWPass registration client certificate on BASE64, " +
+                        "file:name of a PEM file in the realm credentials directory " +
+                        "or a vault reference like ${vault.key}")
                 .type(ProviderConfigProperty.TEXT_TYPE).add()
-                .property().required(true).name("privateKey")
+                .property().name("privateKey")
                 .label("Private key")
-                .helpText("WWPass registration client privet key on BASE64")
+                .helpText("WWPass registration client privet key on BASE64, " +
+                        "file:name of a PEM file in the realm credentials directory " +
+                        "or a vault reference like ${vault.key}")
                 .type(ProviderConfigProperty.TEXT_TYPE).add()
+                .property().name("keyStore")
+                .label("Key store")
+                .helpText("Name of a PKCS#12 file in the realm credentials directory " +
+                        "with the client certificate and key, " +
+                        "used instead of Certificate and Private key when set")
+                .type(ProviderConfigProperty.STRING_TYPE).add()
+                .property().name("keyStorePassword")
+                .label("Key store password")
+                .helpText("Password of the key store, may be a vault reference like ${vault.key}")
+                .type(ProviderConfigProperty.PASSWORD).add()
                 .property().name("usePIN")
                 .label("Use PIN")
                 .helpText("PIN using")
                 .type(ProviderConfigProperty.BOOLEAN_TYPE).add()
+                .property().name("ticketPoolSize")
+                .label("Ticket pool size")
+                .helpText("Maximum number of WWPass tickets requested in advance, 0 disables the pool")
+                .type(ProviderConfigProperty.STRING_TYPE)
+                .defaultValue("0").add()
+                .property().name(WWPassProviderModel.ENDPOINTS_CONFIG_NAME)
+                .label("WWPass endpoints")
+                .helpText("Comma separated WWPass service https URLs on hosts the server allows, " +
+                        "the fastest reachable one is used. Empty uses the server default")
+                .type(ProviderConfigProperty.STRING_TYPE).add()
+                .property().name("connectTimeout")
+                .label("Connect timeout")
+                .helpText("Timeout in milliseconds to connect to WWPass, empty uses the server default")
+                .type(ProviderConfigProperty.STRING_TYPE).add()
+                .property().name("requestTimeout")
+                .label("Request timeout")
+                .helpText("Timeout in milliseconds of a WWPass request, empty uses the server default")
+                .type(ProviderConfigProperty.STRING_TYPE).add()
+                .property().name(WWPassProviderModel.EMBED_TICKET_CONFIG_NAME)
+                .label("Embed ticket")
+                .helpText("Request the first WWPass ticket while rendering the login page and embed it in the page")
+                .type(ProviderConfigProperty.BOOLEAN_TYPE)
+                .defaultValue("false").add()
+                .property().name(WWPassProviderModel.EMBED_TICKET_TIMEOUT_CONFIG_NAME)
+                .label("Embed ticket timeout")
+                .helpText("Milliseconds the login page may wait for the embedded ticket before leaving it " +
+                        "to the browser, at most 250, default 0 embeds only a ticket that is ready")
+                .type(ProviderConfigProperty.STRING_TYPE).add()
                 .build();
     }
 
@@ -1,6 +1,9 @@
 package com.wwpass.keycloak.idp;
 
 import org.keycloak.models.IdentityProviderModel;
+import org.keycloak.models.RealmModel;
+
+import com.wwpass.keycloak.connection.WWPassConnectionFactory;
 
 //NOTICE: https://github.com/keycloak/keycloak/issues/21891
 public final class WWPassProviderModel extends IdentityProviderModel {
@@ -8,13 +11,38 @@ public final class WWPassProviderModel extends IdentityProviderModel {
     public static final String CERT_CONFIG_NAME = "wwpass.credentials.certificate";
     public static final String KEY_CONFIG_NAME = "wwpass.credentials.key";
     public static final String PIN_CONFIG_NAME = "wwpass.pin";
+    public static final String ENDPOINTS_CONFIG_NAME = "spfeEndpoints";
+    public static final String EMBED_TICKET_CONFIG_NAME = "embedTicket";
+    public static final String EMBED_TICKET_TIMEOUT_CONFIG_NAME = "embedTicketTimeout";
+    // Without a wait only a ticket already at hand, such as one from the pool, is embedded.
+    private static final long DEFAULT_EMBED_TICKET_TIMEOUT = 0;
+    // The page is never held back longer than this, a slower ticket is left to the browser.
+    static final long MAX_EMBED_TICKET_TIMEOUT = 250;
+    private final WWPassConnectionFactory connections;
 
     WWPassProviderModel(IdentityProviderModel model) {
         super(model);
+        this.connections = null;
     }
 
     WWPassProviderModel() {
+        this((WWPassConnectionFactory) null);
+    }
+
+    /**
+     * A model to be saved, its endpoints are checked against the options of the given connection factory.
+     */
+    WWPassProviderModel(WWPassConnectionFactory connections) {
         super();
+        this.connections = connections;
+    }
+
+    // Called by Keycloak before the identity provider is saved.
+    @Override
+    public void validate(RealmModel realm) {
+        if (connections == null)
+            throw new IllegalStateException("WWPass connection provider is not available");
+        connections.checkEndpoints(getConfig().get(ENDPOINTS_CONFIG_NAME));
     }
 
     public String getCertificate() {
@@ -40,4 +68,20 @@ public final class WWPassProviderModel extends IdentityProviderModel {
     public void setPIN(boolean usePIN) {
         getConfig().put(PIN_CONFIG_NAME, String.valueOf(usePIN));
     }
+
+    public boolean isEmbedTicket() {
+        return Boolean.parseBoolean(getConfig().get(EMBED_TICKET_CONFIG_NAME));
+    }
+
+    public long getEmbedTicketTimeout() {
+        String value = getConfig().get(EMBED_TICKET_TIMEOUT_CONFIG_NAME);
+        if (value == null || value.isBlank())
+            return DEFAULT_EMBED_TICKET_TIMEOUT;
+        try {
+            long timeout = Long.parseLong(value.trim());
+            return timeout >= 0 ? Math.min(timeout, MAX_EMBED_TICKET_TIMEOUT) : DEFAULT_EMBED_TICKET_TIMEOUT;
+        } catch (NumberFormatException e) {
+            return DEFAULT_EMBED_TICKET_TIMEOUT;
+        }
+    }
 }
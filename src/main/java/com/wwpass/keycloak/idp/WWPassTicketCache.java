@@ -0,0 +1,137 @@
+package com.wwpass.keycloak.idp;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.keycloak.Config.Scope;
+
+/**
+ * Short-lived cache of WWPass tickets resolved by the broker callback, keyed by realm, identity provider
+ * and ticket, and bound to the authentication session that first presented it.
+ * Retries of the callback get the PUID again without a WWPass round trip, even while it is resolving.
+ * When the cache is full, the oldest entries make room for new ones.
+ */
+final class WWPassTicketCache {
+    private static final class Key {
+        private final String realmId;
+        private final String alias;
+        private final String ticket;
+
+        private Key(String realmId, String alias, String ticket) {
+            this.realmId = realmId;
+            this.alias = alias;
+            this.ticket = ticket;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return realmId.equals(other.realmId) && alias.equals(other.alias) && ticket.equals(other.ticket);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(realmId, alias, ticket);
+        }
+    }
+
+    private static final class Entry {
+        private final Key key;
+        private final String sessionKey;
+        private final CompletableFuture<String> puid = new CompletableFuture<>();
+        private final long expiresAt;
+
+        private Entry(Key key, String sessionKey, long expiresAt) {
+            this.key = key;
+            this.sessionKey = sessionKey;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    // Entries in the order they were added, which is the order they expire in as they share one TTL.
+    // Forgotten entries stay queued until they reach the head, and count against the size bound until then.
+    private final Queue<Entry> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    WWPassTicketCache(Scope config) {
+        this.maxEntries = config == null ? 10000 : config.getInt("ticketCacheSize", 10000);
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(
+                config == null ? 300000 : config.getLong("ticketCacheTtl", 300000L));
+    }
+
+    /**
+     * Returns the PUID of a ticket, resolving it only once per session.
+     * Returns {@code null} if the ticket was presented to the same identity provider by another
+     * authentication session.
+     */
+    CompletableFuture<String> resolve(String realmId, String alias, String ticket, String sessionKey,
+                                      Supplier<CompletableFuture<String>> resolver) {
+        long now = System.nanoTime();
+        Key key = new Key(realmId, alias, ticket);
+        Entry entry = entries.get(key);
+        if (entry != null && now - entry.expiresAt > 0) {
+            entries.remove(key, entry);
+            entry = null;
+        }
+        if (entry == null) {
+            Entry own = new Entry(key, sessionKey, now + ttlNanos);
+            entry = entries.putIfAbsent(key, own);
+            if (entry == null) {
+                order.add(own);
+                queued.incrementAndGet();
+                evict(now);
+                resolve(own, resolver);
+                return own.puid;
+            }
+        }
+        return entry.sessionKey.equals(sessionKey) ? entry.puid : null;
+    }
+
+    // Drops forgotten and expired entries from the head, and the oldest ones while over the size bound.
+    // Callers waiting for an evicted entry still get its PUID.
+    private void evict(long now) {
+        Entry oldest;
+        while ((oldest = order.peek()) != null) {
+            if (queued.get() <= maxEntries && now - oldest.expiresAt <= 0 && entries.get(oldest.key) == oldest)
+                return;
+            if (order.remove(oldest)) {
+                queued.decrementAndGet();
+                entries.remove(oldest.key, oldest);
+            }
+        }
+    }
+
+    // A failed resolution is forgotten so that the next attempt reaches WWPass again.
+    private void resolve(Entry entry, Supplier<CompletableFuture<String>> resolver) {
+        CompletableFuture<String> request;
+        try {
+            request = resolver.get();
+        } catch (RuntimeException e) {
+            entries.remove(entry.key, entry);
+            entry.puid.completeExceptionally(e);
+            return;
+        }
+        request.whenComplete((puid, e) -> {
+            if (e != null) {
+                entries.remove(entry.key, entry);
+                entry.puid.completeExceptionally(e);
+            } else {
+                entry.puid.complete(puid);
+            }
+        });
+    }
+}
@@ -0,0 +1,68 @@
+package com.wwpass.keycloak.ticket;
+
+import jakarta.ws.rs.ForbiddenException;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.NotAuthorizedException;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import org.jboss.resteasy.annotations.cache.NoCache;
+
+import org.keycloak.models.AdminRoles;
+import org.keycloak.models.Constants;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.services.managers.AppAuthManager;
+import org.keycloak.services.managers.AuthenticationManager;
+import org.keycloak.services.resource.RealmResourceProvider;
+
+import com.wwpass.keycloak.connection.WWPassConnectionProvider;
+import com.wwpass.keycloak.connection.WWPassStatus;
+
+final class WWPassStatusProvider implements RealmResourceProvider {
+    private final KeycloakSession session;
+
+    WWPassStatusProvider(KeycloakSession session) {
+        this.session = session;
+    }
+
+    @Override
+    public Object getResource() {
+        return this;
+    }
+
+    /**
+     * Cached contexts of the realm on this node, for holders of a realm token with the view-realm role.
+     */
+    @GET
+    @Path("")
+    @NoCache
+    @Produces(MediaType.APPLICATION_JSON)
+    public WWPassStatus status(@QueryParam("probe") boolean probe) {
+        AuthenticationManager.AuthResult auth = new AppAuthManager.BearerTokenAuthenticator(session).authenticate();
+        if (auth == null)
+            throw new NotAuthorizedException("Bearer");
+        AccessToken.Access access = auth.getToken().getResourceAccess(Constants.REALM_MANAGEMENT_CLIENT_ID);
+        if (access == null || !access.isUserInRole(AdminRoles.VIEW_REALM))
+            throw new ForbiddenException();
+        return session.getProvider(WWPassConnectionProvider.class).getStatus(probe);
+    }
+
+    /**
+     * Readiness for load balancers, answered from local state without contacting WWPass.
+     */
+    @GET
+    @Path("ready")
+    @NoCache
+    public Response ready() {
+        boolean ready = session.getProvider(WWPassConnectionProvider.class).isReady();
+        return Response.status(ready ? Response.Status.OK : Response.Status.SERVICE_UNAVAILABLE).build();
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -13,6 +13,8 @@ import org.keycloak.services.resource.RealmResourceProviderFactory;
 public final class WWPassTicketFactory implements RealmResourceProviderFactory {
     private static final Logger LOGGER = Logger.getLogger(WWPassTicketFactory.class);
     public static final String ID = "wwpass-ticket";
+    private WWPassTicketLimiter limiter;
+    private long reuseMinTtlMillis;
 
     @Override
     public String getId() {
@@ -21,12 +23,14 @@ public final class WWPassTicketFactory implements RealmResourceProviderFactory {
 
     @Override
     public RealmResourceProvider create(KeycloakSession session) {
-        return new WWPassTicketProvider(session);
+        return new WWPassTicketProvider(session, limiter, reuseMinTtlMillis);
     }
 
     @Override
     public void init(Scope config) {
         LOGGER.info(MessageFormat.format("init({0})", config));
+        limiter = new WWPassTicketLimiter(config);
+        reuseMinTtlMillis = config.getLong("reuseMinTtl", 60000L);
     }
 
     @Override
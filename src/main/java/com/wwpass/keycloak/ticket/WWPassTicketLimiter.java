@@ -0,0 +1,136 @@
+package com.wwpass.keycloak.ticket;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.keycloak.Config.Scope;
+
+/**
+ * Admission control of the ticket endpoint: per client IP and per realm token buckets
+ * and a global limit of requests waiting for WWPass. A limit of 0 disables it, the per client limit
+ * is disabled by default as clients behind a NAT or a proxy Keycloak does not trust share an address.
+ * Buckets follow the generic cell rate algorithm, so each one is a single CAS-updated timestamp.
+ */
+final class WWPassTicketLimiter {
+    private static final int MAX_TRACKED_CLIENTS = 100000;
+
+    static final class Rejection {
+        final String limit;
+        final long retryAfterSeconds;
+
+        private Rejection(String limit, long retryAfterNanos) {
+            this.limit = limit;
+            this.retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(retryAfterNanos) + 1);
+        }
+    }
+
+    private static final class Limit {
+        private final long intervalNanos;
+        private final long toleranceNanos;
+
+        private Limit(int ratePerSecond, int burst) {
+            this.intervalNanos = ratePerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / ratePerSecond : 0;
+            this.toleranceNanos = intervalNanos * Math.max(0, burst - 1);
+        }
+
+        private boolean isEnabled() {
+            return intervalNanos > 0;
+        }
+
+        // Returns 0 when a request would be admitted, otherwise the time until it would be.
+        private long check(AtomicLong arrival, long now) {
+            return Math.max(0, Math.max(arrival.get(), now) - toleranceNanos - now);
+        }
+
+        // Returns 0 when admitted, otherwise the time until the next request would be.
+        private long acquire(AtomicLong arrival, long now) {
+            while (true) {
+                long current = arrival.get();
+                long theoretical = Math.max(current, now);
+                long wait = theoretical - toleranceNanos - now;
+                if (wait > 0)
+                    return wait;
+                if (arrival.compareAndSet(current, theoretical + intervalNanos))
+                    return 0;
+            }
+        }
+
+        private void refund(AtomicLong arrival) {
+            arrival.addAndGet(-intervalNanos);
+        }
+    }
+
+    private final Limit clientLimit;
+    private final Limit realmLimit;
+    private final int maxInFlight;
+    private final ConcurrentMap<String, AtomicLong> clients = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> realms = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    WWPassTicketLimiter(Scope config) {
+        this.clientLimit = new Limit(config.getInt("clientRate", 0), config.getInt("clientBurst", 0));
+        this.realmLimit = new Limit(config.getInt("realmRate", 50), config.getInt("realmBurst", 200));
+        this.maxInFlight = config.getInt("maxInFlight", 100);
+    }
+
+    /**
+     * Admits a request or returns the limit it exceeds. An admitted request must be released.
+     * All limits are checked before any is charged, so a request rejected by one limit does not
+     * use up another; a request losing a race for the last token gives back what it took.
+     */
+    Rejection tryAcquire(String realmId, String clientAddress) {
+        long now = System.nanoTime();
+        AtomicLong client = clientLimit.isEnabled() && clientAddress != null
+                ? bucket(clients, clientAddress, now) : null;
+        AtomicLong realm = realmLimit.isEnabled() ? bucket(realms, realmId, now) : null;
+        if (client != null) {
+            long wait = clientLimit.check(client, now);
+            if (wait > 0)
+                return new Rejection("client", wait);
+        }
+        if (realm != null) {
+            long wait = realmLimit.check(realm, now);
+            if (wait > 0)
+                return new Rejection("realm", wait);
+        }
+        if (maxInFlight > 0 && inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            return new Rejection("inflight", 0);
+        }
+        if (realm != null) {
+            long wait = realmLimit.acquire(realm, now);
+            if (wait > 0) {
+                release();
+                return new Rejection("realm", wait);
+            }
+        }
+        if (client != null) {
+            long wait = clientLimit.acquire(client, now);
+            if (wait > 0) {
+                if (realm != null)
+                    realmLimit.refund(realm);
+                release();
+                return new Rejection("client", wait);
+            }
+        }
+        return null;
+    }
+
+    void release() {
+        if (maxInFlight > 0)
+            inFlight.decrementAndGet();
+    }
+
+    private static AtomicLong bucket(ConcurrentMap<String, AtomicLong> buckets, String key, long now) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket != null)
+            return bucket;
+        if (buckets.size() >= MAX_TRACKED_CLIENTS)
+            // A bucket whose theoretical arrival time has passed is full and can be forgotten.
+            buckets.values().removeIf(arrival -> arrival.get() - now <= 0);
+        return buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+    }
+}
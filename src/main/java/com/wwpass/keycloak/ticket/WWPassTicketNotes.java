@@ -0,0 +1,94 @@
+package com.wwpass.keycloak.ticket;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.keycloak.common.util.Time;
+import org.keycloak.executors.ExecutorsProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.sessions.AuthenticationSessionModel;
+import org.keycloak.sessions.RootAuthenticationSessionModel;
+
+/**
+ * Keeps the last ticket issued to an authentication session as an auth note,
+ * so reloads of the login page can get it again while it has enough lifetime left.
+ * The note holds the expiry time in milliseconds and the ticket separated by a space.
+ */
+public final class WWPassTicketNotes {
+    private static final String NOTE_PREFIX = "wwpass.ticket.";
+    private static final String EXECUTOR = "wwpass-ticket-notes";
+
+    private WWPassTicketNotes() {
+    }
+
+    public static WWPassTicket reuse(AuthenticationSessionModel authSession, String alias, long minRemainingMillis) {
+        String note = authSession.getAuthNote(NOTE_PREFIX + alias);
+        if (note == null)
+            return null;
+        int separator = note.indexOf(' ');
+        if (separator <= 0)
+            return null;
+        long remaining;
+        try {
+            remaining = Long.parseLong(note.substring(0, separator)) - Time.currentTimeMillis();
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (remaining < minRemainingMillis)
+            return null;
+        return new WWPassTicket(note.substring(separator + 1), (int) TimeUnit.MILLISECONDS.toSeconds(remaining));
+    }
+
+    public static void store(AuthenticationSessionModel authSession, String alias, WWPassTicket ticket) {
+        long expiresAt = Time.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ticket.ttl);
+        authSession.setAuthNote(NOTE_PREFIX + alias, expiresAt + " " + ticket.ticket);
+    }
+
+    // A ticket presented to the broker callback is spent and must not be given out again.
+    public static void forget(AuthenticationSessionModel authSession, String alias) {
+        authSession.removeAuthNote(NOTE_PREFIX + alias);
+    }
+
+    /**
+     * Executor for {@link #store(KeycloakSessionFactory, String, String, String, String, WWPassTicket)},
+     * so the transaction does not hold up a WWPass HTTP client thread.
+     */
+    public static Executor executor(KeycloakSession session) {
+        return session.getProvider(ExecutorsProvider.class).getExecutor(EXECUTOR);
+    }
+
+    /**
+     * Stores the ticket in its own transaction, for tickets that arrive after the request session is gone.
+     */
+    public static void store(KeycloakSessionFactory factory, String realmId, String rootSessionId,
+                             String tabId, String alias, WWPassTicket ticket) {
+        store(factory, realmId, rootSessionId, tabId, alias, ticket, true);
+    }
+
+    /**
+     * Like {@link #store(KeycloakSessionFactory, String, String, String, String, WWPassTicket)},
+     * but keeps a ticket the session got in the meantime.
+     */
+    public static void storeIfAbsent(KeycloakSessionFactory factory, String realmId, String rootSessionId,
+                                     String tabId, String alias, WWPassTicket ticket) {
+        store(factory, realmId, rootSessionId, tabId, alias, ticket, false);
+    }
+
+    private static void store(KeycloakSessionFactory factory, String realmId, String rootSessionId,
+                              String tabId, String alias, WWPassTicket ticket, boolean replace) {
+        KeycloakModelUtils.runJobInTransaction(factory, session -> {
+            RealmModel realm = session.realms().getRealm(realmId);
+            if (realm == null)
+                return;
+            RootAuthenticationSessionModel root =
+                    session.authenticationSessions().getRootAuthenticationSession(realm, rootSessionId);
+            AuthenticationSessionModel authSession =
+                    root == null ? null : root.getAuthenticationSessions().get(tabId);
+            if (authSession != null && (replace || authSession.getAuthNote(NOTE_PREFIX + alias) == null))
+                store(authSession, alias, ticket);
+        });
+    }
+}
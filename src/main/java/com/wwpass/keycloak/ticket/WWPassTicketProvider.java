@@ -1,9 +1,16 @@
 package com.wwpass.keycloak.ticket;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 
@@ -17,16 +24,28 @@ import org.jboss.logging.Logger;
 import org.jboss.resteasy.annotations.cache.NoCache;
 
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.services.managers.AuthenticationSessionManager;
 import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.sessions.AuthenticationSessionModel;
+import org.keycloak.sessions.RootAuthenticationSessionModel;
 
 import com.wwpass.keycloak.connection.WWPassConnectionProvider;
+import com.wwpass.keycloak.connection.WWPassException;
+import com.wwpass.keycloak.connection.WWPassMetrics;
+import com.wwpass.keycloak.connection.WWPassSpan;
 
 final class WWPassTicketProvider implements RealmResourceProvider {
     private static final Logger LOGGER = Logger.getLogger(WWPassTicketProvider.class);
     private final KeycloakSession session;
+    private final WWPassTicketLimiter limiter;
+    private final long reuseMinTtlMillis;
 
-    WWPassTicketProvider(KeycloakSession session) {
+    WWPassTicketProvider(KeycloakSession session, WWPassTicketLimiter limiter, long reuseMinTtlMillis) {
         this.session = session;
+        this.limiter = limiter;
+        this.reuseMinTtlMillis = reuseMinTtlMillis;
     }
 
     @Override
@@ -52,9 +71,83 @@ final class WWPassTicketProvider implements RealmResourceProvider {
     )
     @NoCache
     @Produces(MediaType.APPLICATION_JSON)
-    public WWPassTicket get(@QueryParam("config") String id) {
+    public void get(@QueryParam("config") String id,
+                    @QueryParam("tab_id") String tabId,
+                    @Suspended AsyncResponse response) {
         LOGGER.info("Getting ticket for config: " + id);
-        return session.getProvider(WWPassConnectionProvider.class).getTicket(id);
+        RealmModel realmModel = session.getContext().getRealm();
+        String realm = realmModel.getName();
+        AuthenticationSessionModel authSession = authenticationSession(realmModel, tabId);
+        WWPassSpan span = WWPassSpan.start("wwpass.ticket", session, authSession)
+                .tag("realm", realm)
+                .tag("alias", id);
+        if (authSession != null && reuseMinTtlMillis > 0) {
+            WWPassTicket reused = WWPassTicketNotes.reuse(authSession, id, reuseMinTtlMillis);
+            if (reused != null) {
+                WWPassMetrics.ticketRequest(realm, true);
+                span.tag("outcome", "reused").end(null);
+                response.resume(reused);
+                return;
+            }
+        }
+        WWPassTicketLimiter.Rejection rejection = limiter.tryAcquire(
+                realmModel.getId(), session.getContext().getConnection().getRemoteAddr());
+        if (rejection != null) {
+            WWPassMetrics.ticketRejected(realm, rejection.limit);
+            span.tag("outcome", "rejected").end(null);
+            response.resume(Response.status(Response.Status.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, rejection.retryAfterSeconds)
+                    .build());
+            return;
+        }
+        CompletableFuture<WWPassTicket> request;
+        try {
+            request = session.getProvider(WWPassConnectionProvider.class).getTicketAsync(id);
+        } catch (RuntimeException e) {
+            limiter.release();
+            WWPassMetrics.ticketRequest(realm, false);
+            span.end(e);
+            throw e;
+        }
+        if (authSession != null && reuseMinTtlMillis > 0) {
+            // The request session may be closed by the time WWPass replies. The note is written
+            // on a Keycloak executor, not on the HTTP client thread that completed the request.
+            String realmId = realmModel.getId();
+            String rootSessionId = authSession.getParentSession().getId();
+            KeycloakSessionFactory factory = session.getKeycloakSessionFactory();
+            Executor notes = WWPassTicketNotes.executor(session);
+            request = request.thenApplyAsync(ticket -> {
+                try {
+                    WWPassTicketNotes.store(factory, realmId, rootSessionId, tabId, id, ticket);
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Failed to keep WWPass ticket in the authentication session", e);
+                }
+                return ticket;
+            }, notes);
+        }
+        request.whenComplete((ticket, error) -> {
+            limiter.release();
+            WWPassMetrics.ticketRequest(realm, error == null);
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            span.end(cause);
+            if (cause instanceof WWPassException &&
+                    ((WWPassException) cause).getReason() == WWPassException.Reason.CIRCUIT_OPEN) {
+                LOGGER.warn(cause.getMessage());
+                response.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+            } else if (cause != null) {
+                response.resume(cause);
+            } else {
+                response.resume(ticket);
+            }
+        });
+    }
+
+    private AuthenticationSessionModel authenticationSession(RealmModel realm, String tabId) {
+        if (tabId == null)
+            return null;
+        RootAuthenticationSessionModel root =
+                new AuthenticationSessionManager(session).getCurrentRootAuthenticationSession(realm);
+        return root == null ? null : root.getAuthenticationSessions().get(tabId);
     }
 
     @Override
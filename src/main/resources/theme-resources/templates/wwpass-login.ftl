@@ -3,7 +3,7 @@
     <#if section = "title">
         ${msg("loginTitle",realm.name)}
     <#elseif section = "header">
-        <link href="${url.resourcesPath}/style/wwpass-style.css" rel="stylesheet">
+        <link href="${assetsPath}/style/wwpass-style.css" rel="stylesheet">
         <span class="heading heading--h2 heading--light heading--center heading--marginBottom-0 qrcode-heading">${msg("wwpass-scan-qr-code")}</span>
         <br>
         <span class="text text--marginTop-0 text--center qrcode-heading">with WWPass<sup class="text__sup">TM</sup> Key app to log in</span>
@@ -24,6 +24,27 @@
             </div>
         </div>
         <script type="text/javascript">
+            const ticketURL = '../../wwpass-ticket?config=' + encodeURI('${providerID?no_esc}') + '&tab_id=${tabId}';
+            <#if ticket??>
+            (function () {
+                // The first ticket comes with the page, later refreshes go to ticketURL.
+                // wwpass-frontend offers no way to pass a ticket in, so its first ticket request is
+                // answered here. This relies on wwpass-frontend.min.js calling fetch with the ticketURL
+                // string given to authInit, check it when upgrading the library: if it stops doing so,
+                // the embedded ticket goes unused and the page simply requests one as without it.
+                const embedded = {ticket: '${ticket?js_string?no_esc}', ttl: ${ticketTtl?c}};
+                const originalFetch = window.fetch;
+                window.fetch = function (resource, init) {
+                    if (resource === ticketURL) {
+                        // Only the first ticket request is answered, the page gets its fetch back.
+                        window.fetch = originalFetch;
+                        return Promise.resolve(new Response(JSON.stringify(embedded),
+                            {headers: {'Content-Type': 'application/json'}}));
+                    }
+                    return originalFetch.apply(window, arguments);
+                };
+            })();
+            </#if>
             window.onload = function () {
                 if (document.getElementById('qrcode')) {
                     WWPass.authInit({
@@ -31,7 +52,7 @@
                         passkey: '#passkey',
                         forcePasskeyButton: false,
                         callbackURL: '../../broker/${providerID?no_esc}/endpoint?state=${state}',
-                        ticketURL: '../../wwpass-ticket?config=' + encodeURI('${providerID?no_esc}'),
+                        ticketURL: ticketURL,
                         uiCallback: function (event) {
                             const headings = document.querySelectorAll(`.qrcode-heading`);
                             if (headings) {
@@ -45,6 +66,6 @@
                 }
             };
         </script>
-        <script type="text/javascript" src="${url.resourcesPath}/wwpass-frontend.min.js"></script>
+        <script type="text/javascript" src="${assetsPath}/wwpass-frontend.min.js"></script>
     </#if>
 </@layout.registrationLayout>
\ No newline at end of file
@@ -0,0 +1,33 @@
+package com.wwpass.keycloak.assets;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class WWPassAssetsProviderTest {
+    @Test
+    void acceptsListedGzip() {
+        for (String header : new String[] {"gzip", "deflate, gzip;q=0.5", "br, GZIP ; Q=1", "x-gzip", "*", "*;q=0.1"})
+            assertTrue(WWPassAssetsProvider.acceptsGzip(header), header);
+    }
+
+    @Test
+    void honoursRefusedGzip() {
+        String[] headers = {
+                null,
+                "",
+                "identity",
+                "br, deflate",
+                "gzip;q=0",
+                "gzip; q=0.000",
+                "*, gzip;q=0",
+                "gzip;q=0, *",
+                "*;q=0",
+                "gzip;q=x",
+                "gzipped",
+        };
+        for (String header : headers)
+            assertFalse(WWPassAssetsProvider.acceptsGzip(header), String.valueOf(header));
+    }
+}
@@ -0,0 +1,133 @@
+package com.wwpass.keycloak.connection;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.wwpass.keycloak.testing.TestScope;
+
+class WWPassCircuitBreakerTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(2);
+    private static final WWPassException UNAVAILABLE =
+            new WWPassException(WWPassException.Reason.UNAVAILABLE, "unavailable");
+    private static final WWPassException ERROR_REPLY =
+            new WWPassException(WWPassException.Reason.ERROR_REPLY, "error");
+
+    private static WWPassCircuitBreaker breaker(int failureRate) {
+        return new WWPassCircuitBreaker("test/wwpass", WWPassConnectionSettings.fromConfig(TestScope.of(
+                "breakerWindow", "4",
+                "breakerMinCalls", "4",
+                "breakerFailureRate", Integer.toString(failureRate),
+                "breakerSlowCall", "1000",
+                "breakerOpenDuration", "100")));
+    }
+
+    private static void call(WWPassCircuitBreaker breaker, long nanos, WWPassException error) {
+        breaker.acquire();
+        breaker.record(nanos, error);
+    }
+
+    private static void open(WWPassCircuitBreaker breaker) {
+        for (int i = 0; i < 4; i++)
+            call(breaker, FAST, UNAVAILABLE);
+        assertEquals(WWPassCircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    private static void assertRejected(WWPassCircuitBreaker breaker) {
+        WWPassException e = assertThrows(WWPassException.class, breaker::acquire);
+        assertEquals(WWPassException.Reason.CIRCUIT_OPEN, e.getReason());
+    }
+
+    @Test
+    void opensAtFailureRate() {
+        WWPassCircuitBreaker breaker = breaker(50);
+        call(breaker, FAST, null);
+        call(breaker, FAST, UNAVAILABLE);
+        call(breaker, FAST, null);
+        assertEquals(WWPassCircuitBreaker.State.CLOSED, breaker.state());
+        call(breaker, FAST, UNAVAILABLE);
+        assertEquals(WWPassCircuitBreaker.State.OPEN, breaker.state());
+        assertRejected(breaker);
+    }
+
+    @Test
+    void waitsForMinimumCalls() {
+        WWPassCircuitBreaker breaker = breaker(50);
+        for (int i = 0; i < 3; i++)
+            call(breaker, FAST, UNAVAILABLE);
+        assertEquals(WWPassCircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    void ignoresErrorReplies() {
+        WWPassCircuitBreaker breaker = breaker(50);
+        for (int i = 0; i < 8; i++)
+            call(breaker, FAST, ERROR_REPLY);
+        assertEquals(WWPassCircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    void countsSlowCalls() {
+        WWPassCircuitBreaker breaker = breaker(50);
+        for (int i = 0; i < 4; i++)
+            call(breaker, SLOW, null);
+        assertEquals(WWPassCircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    @Test
+    void forgetsCallsLeavingTheWindow() {
+        WWPassCircuitBreaker breaker = breaker(75);
+        call(breaker, FAST, UNAVAILABLE);
+        call(breaker, FAST, UNAVAILABLE);
+        call(breaker, FAST, null);
+        call(breaker, FAST, null);
+        // Both failures slide out of the window, so the next one alone stays below the rate.
+        call(breaker, FAST, null);
+        call(breaker, FAST, UNAVAILABLE);
+        call(breaker, FAST, null);
+        assertEquals(WWPassCircuitBreaker.State.CLOSED, breaker.state());
+        call(breaker, FAST, UNAVAILABLE);
+        call(breaker, FAST, UNAVAILABLE);
+        assertEquals(WWPassCircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    @Test
+    void admitsSingleProbeWhenHalfOpen() throws InterruptedException {
+        WWPassCircuitBreaker breaker = breaker(50);
+        open(breaker);
+        TimeUnit.MILLISECONDS.sleep(150);
+        assertDoesNotThrow(breaker::acquire);
+        assertEquals(WWPassCircuitBreaker.State.HALF_OPEN, breaker.state());
+        assertRejected(breaker);
+        breaker.record(FAST, null);
+        assertEquals(WWPassCircuitBreaker.State.CLOSED, breaker.state());
+        assertDoesNotThrow(breaker::acquire);
+    }
+
+    @Test
+    void reopensOnFailedProbe() throws InterruptedException {
+        WWPassCircuitBreaker breaker = breaker(50);
+        open(breaker);
+        TimeUnit.MILLISECONDS.sleep(150);
+        call(breaker, FAST, UNAVAILABLE);
+        assertEquals(WWPassCircuitBreaker.State.OPEN, breaker.state());
+        assertRejected(breaker);
+    }
+
+    @Test
+    void startsOverAfterClosing() throws InterruptedException {
+        WWPassCircuitBreaker breaker = breaker(50);
+        open(breaker);
+        TimeUnit.MILLISECONDS.sleep(150);
+        call(breaker, FAST, null);
+        // Failures from before the breaker opened no longer count.
+        for (int i = 0; i < 3; i++)
+            call(breaker, FAST, UNAVAILABLE);
+        assertEquals(WWPassCircuitBreaker.State.CLOSED, breaker.state());
+    }
+}
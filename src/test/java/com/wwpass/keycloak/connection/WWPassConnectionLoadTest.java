@@ -0,0 +1,80 @@
+package com.wwpass.keycloak.connection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.wwpass.keycloak.testing.LoadStats;
+import com.wwpass.keycloak.testing.SpfeEmulator;
+import com.wwpass.keycloak.testing.TestRealm;
+
+/**
+ * Ticket requests at high concurrency against a slow SPFE, with the HTTP client on virtual threads
+ * and on the bounded platform thread pool. Run with {@code mvn test -Pload}, sizes can be changed with
+ * {@code -Dwwpass.load.concurrency}, {@code -Dwwpass.load.requests}, {@code -Dwwpass.load.latencyMillis}
+ * and {@code -Dwwpass.load.maxThreads}.
+ */
+@Tag("load")
+class WWPassConnectionLoadTest {
+    private static final int CONCURRENCY = Integer.getInteger("wwpass.load.concurrency", 200);
+    private static final int REQUESTS = Integer.getInteger("wwpass.load.requests", 2000);
+    private static final long LATENCY_MILLIS = Long.getLong("wwpass.load.latencyMillis", 250);
+    private static final int MAX_THREADS = Integer.getInteger("wwpass.load.maxThreads", 4);
+
+    @ParameterizedTest(name = "virtualThreads={0}")
+    @ValueSource(booleans = {false, true})
+    void ticketThroughputAgainstSlowSpfe(boolean virtualThreads) throws InterruptedException {
+        assumeTrue(!virtualThreads || WWPassThreads.VIRTUAL_AVAILABLE, "virtual threads need Java 21");
+        Map<String, String> options = Map.of(
+                "virtualThreads", Boolean.toString(virtualThreads),
+                "maxThreads", Integer.toString(MAX_THREADS),
+                // Mutual TLS handshakes of the first connections queue up in the emulator.
+                "connectTimeout", "60000",
+                "requestTimeout", "60000",
+                "breakerSlowCall", "60000");
+        try (TestRealm realm = TestRealm.start(options, Map.of())) {
+            realm.spfe.latency(SpfeEmulator.Latency.logNormal(Duration.ofMillis(LATENCY_MILLIS), 0.3));
+            WWPassConnectionProvider connection = realm.connection();
+            // Builds the context, so the run measures requests only.
+            connection.getTicket(TestRealm.ALIAS);
+
+            LoadStats stats = new LoadStats(REQUESTS);
+            Semaphore inFlight = new Semaphore(CONCURRENCY);
+            AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < REQUESTS; i++) {
+                inFlight.acquire();
+                long sent = System.nanoTime();
+                realm.connection().getTicketAsync(TestRealm.ALIAS).whenComplete((ticket, e) -> {
+                    if (e == null)
+                        stats.success(System.nanoTime() - sent);
+                    else {
+                        firstFailure.compareAndSet(null, e);
+                        stats.failure();
+                    }
+                    inFlight.release();
+                });
+            }
+            assertTrue(inFlight.tryAcquire(CONCURRENCY, 5, TimeUnit.MINUTES), "requests still running");
+            long elapsed = System.nanoTime() - start;
+
+            System.out.println(stats.summary(String.format(
+                    "virtualThreads=%s maxThreads=%d concurrency=%d SPFE median %d ms, %d SPFE requests at most",
+                    virtualThreads, MAX_THREADS, CONCURRENCY, LATENCY_MILLIS, realm.spfe.maxInFlight()), elapsed));
+            if (firstFailure.get() != null)
+                firstFailure.get().printStackTrace();
+            assertEquals(0, stats.failures());
+            assertTrue(realm.spfe.maxInFlight() > 1, "requests did not overlap");
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.wwpass.keycloak.connection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import com.wwpass.keycloak.testing.SpfeEmulator;
+import com.wwpass.keycloak.testing.TestPki;
+import com.wwpass.keycloak.testing.TestRealm;
+import com.wwpass.keycloak.ticket.WWPassTicket;
+
+class WWPassConnectionProviderImplTest {
+    private static final String ALIAS = TestRealm.ALIAS;
+
+    private TestRealm realm;
+
+    @AfterEach
+    void close() {
+        if (realm != null)
+            realm.close();
+    }
+
+    private static void assertFails(WWPassException.Reason reason, Executable call) {
+        WWPassException e = assertThrows(WWPassException.class, call);
+        assertEquals(reason, e.getReason(), e.getMessage());
+    }
+
+    @Test
+    void getsTicketAndPuidOverMutualTls() {
+        realm = TestRealm.start();
+        WWPassConnectionProvider connection = realm.connection();
+        WWPassTicket ticket = connection.getTicket(ALIAS);
+        assertEquals(600, ticket.ttl);
+        assertEquals(realm.spfe.puid(ticket.ticket), connection.getPUID(ALIAS, ticket.ticket));
+        assertEquals(1, realm.spfe.count(SpfeEmulator.Outcome.TICKET));
+        assertTrue(realm.spfe.clients().contains("CN=" + TestPki.CLIENT_NAME), realm.spfe.clients().toString());
+    }
+
+    @Test
+    void getsTicketAndPuidAsynchronously() {
+        realm = TestRealm.start();
+        WWPassConnectionProvider connection = realm.connection();
+        WWPassTicket ticket = connection.getTicketAsync(ALIAS).join();
+        assertEquals(realm.spfe.puid(ticket.ticket), connection.getPUIDAsync(ALIAS, ticket.ticket).join());
+    }
+
+    @Test
+    void requestsPinTickets() {
+        realm = TestRealm.start(Map.of(), Map.of("usePIN", "true"));
+        assertTrue(realm.connection().getTicket(ALIAS).ticket.endsWith(":p"));
+    }
+
+    @Test
+    void reportsErrorReply() {
+        realm = TestRealm.start();
+        assertFails(WWPassException.Reason.ERROR_REPLY, () -> realm.connection().getPUID(ALIAS, "unknown"));
+        realm.spfe.errorReplies(1);
+        assertFails(WWPassException.Reason.ERROR_REPLY, () -> realm.connection().getTicket(ALIAS));
+    }
+
+    @Test
+    void reportsHttpErrorAsMalformedReply() {
+        realm = TestRealm.start();
+        realm.spfe.httpErrors(1);
+        assertFails(WWPassException.Reason.MALFORMED_REPLY, () -> realm.connection().getTicket(ALIAS));
+    }
+
+    @Test
+    void reportsConnectionReset() {
+        realm = TestRealm.start();
+        realm.spfe.resets(1);
+        assertFails(WWPassException.Reason.UNAVAILABLE, () -> realm.connection().getTicket(ALIAS));
+        CompletionException e = assertThrows(CompletionException.class,
+                () -> realm.connection().getTicketAsync(ALIAS).join());
+        assertEquals(WWPassException.Reason.UNAVAILABLE, ((WWPassException) e.getCause()).getReason());
+    }
+
+    @Test
+    void timesOutSlowReplies() {
+        realm = TestRealm.start(Map.of(), Map.of("requestTimeout", "200"));
+        realm.spfe.latency(SpfeEmulator.Latency.fixed(Duration.ofSeconds(2)));
+        long start = System.nanoTime();
+        assertFails(WWPassException.Reason.TIMEOUT, () -> realm.connection().getTicket(ALIAS));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test
+    void opensBreakerOnResets() {
+        realm = TestRealm.start(Map.of("breakerWindow", "4", "breakerMinCalls", "4"), Map.of());
+        realm.spfe.resets(1);
+        for (int i = 0; i < 4; i++)
+            assertFails(WWPassException.Reason.UNAVAILABLE, () -> realm.connection().getTicket(ALIAS));
+        long resets = realm.spfe.count(SpfeEmulator.Outcome.RESET);
+        realm.spfe.resets(0);
+        assertFails(WWPassException.Reason.CIRCUIT_OPEN, () -> realm.connection().getTicket(ALIAS));
+        assertEquals(resets, realm.spfe.count(SpfeEmulator.Outcome.RESET));
+        assertEquals(0, realm.spfe.count(SpfeEmulator.Outcome.TICKET));
+    }
+
+    @Test
+    void countsSlowReadsAsSlowCalls() {
+        realm = TestRealm.start(Map.of("breakerWindow", "2", "breakerMinCalls", "2", "breakerSlowCall", "100"),
+                Map.of());
+        realm.spfe.slowReads(1, Duration.ofMillis(300));
+        realm.connection().getTicket(ALIAS);
+        realm.connection().getTicket(ALIAS);
+        assertEquals(2, realm.spfe.count(SpfeEmulator.Outcome.SLOW_READ));
+        assertFails(WWPassException.Reason.CIRCUIT_OPEN, () -> realm.connection().getTicket(ALIAS));
+    }
+
+    @Test
+    void finishesRequestsOfReplacedContext() throws Exception {
+        realm = TestRealm.start(Map.of("contextRevalidateInterval", "0"), Map.of());
+        realm.connection().getTicket(ALIAS);
+        realm.spfe.latency(SpfeEmulator.Latency.fixed(Duration.ofMillis(500)));
+        CompletableFuture<WWPassTicket> inFlight = realm.connection().getTicketAsync(ALIAS);
+        // The next call finds the changed config and closes the context of the call in flight.
+        realm.configure(Map.of("connectTimeout", "4000"));
+        realm.spfe.latency(SpfeEmulator.Latency.fixed(Duration.ZERO));
+        realm.connection().getTicket(ALIAS);
+        WWPassTicket ticket = inFlight.get(5, TimeUnit.SECONDS);
+        assertEquals(realm.spfe.puid(ticket.ticket), realm.connection().getPUID(ALIAS, ticket.ticket));
+    }
+
+    @Test
+    void failsOverToAnotherEndpoint() {
+        realm = TestRealm.start();
+        SpfeEmulator stopped = SpfeEmulator.start(realm.pki);
+        stopped.close();
+        realm.configure(Map.of("spfeEndpoints", stopped.url() + " " + realm.spfe.url()));
+        for (int i = 0; i < 5; i++)
+            realm.connection().getTicket(ALIAS);
+        assertEquals(5, realm.spfe.count(SpfeEmulator.Outcome.TICKET));
+    }
+
+    @Test
+    void reportsStatus() {
+        realm = TestRealm.start();
+        WWPassConnectionProvider connection = realm.connection();
+        connection.getTicket(ALIAS);
+        WWPassStatus status = connection.getStatus(false);
+        assertTrue(status.ready);
+        assertEquals(1, status.contexts.size());
+        WWPassStatus.Context context = status.contexts.get(0);
+        assertEquals("CLOSED", context.circuitBreaker);
+        assertEquals("CN=" + TestPki.CLIENT_NAME, context.certificateSubject);
+        assertEquals(1, context.requests);
+    }
+}
@@ -0,0 +1,195 @@
+package com.wwpass.keycloak.connection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import javax.net.ssl.SSLContext;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.wwpass.keycloak.testing.TestScope;
+
+class WWPassContextCacheTest {
+    private static final String REALM = "realm-id";
+    private static final Predicate<WWPassContext> ANY = context -> true;
+
+    private final WWPassConnectionSettings settings = WWPassConnectionSettings.fromConfig(TestScope.of(
+            "maxContexts", "2",
+            "contextIdleTimeout", "60000",
+            "contextFailureTtl", "100"));
+    private final WWPassContextCache cache = new WWPassContextCache(settings);
+    private final AtomicInteger builds = new AtomicInteger();
+
+    @AfterEach
+    void close() {
+        cache.close();
+    }
+
+    private WWPassContext context(String alias) {
+        builds.incrementAndGet();
+        try {
+            return new WWPassContext("test", alias, alias + "-id", SSLContext.getDefault(), null, Map.of(), settings);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Supplier<WWPassContext> failing() {
+        return () -> {
+            builds.incrementAndGet();
+            throw new IllegalArgumentException("bad credentials");
+        };
+    }
+
+    @Test
+    void buildsOnceForConcurrentCallers() throws Exception {
+        int callers = 16;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<WWPassContext>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return cache.build(REALM, "wwpass", ANY, () -> {
+                        sleep(100);
+                        return context("wwpass");
+                    });
+                }));
+            }
+            start.countDown();
+            WWPassContext first = results.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<WWPassContext> result : results)
+                assertSame(first, result.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, builds.get());
+        assertSame(cache.get(REALM, "wwpass"), cache.build(REALM, "wwpass", ANY, () -> context("wwpass")));
+    }
+
+    @Test
+    void reusesContextBuiltSinceTheCallerLooked() throws Exception {
+        CountDownLatch building = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<WWPassContext> first = pool.submit(() -> cache.build(REALM, "wwpass", ANY, () -> {
+                building.countDown();
+                await(release);
+                return context("wwpass");
+            }));
+            building.await();
+            // A caller that found no context while the first build was running.
+            assertNull(cache.get(REALM, "wwpass"));
+            release.countDown();
+            WWPassContext built = first.get(5, TimeUnit.SECONDS);
+            assertSame(built, cache.build(REALM, "wwpass", ANY, () -> context("wwpass")));
+            assertEquals(1, builds.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void rebuildsContextThatIsNotCurrent() {
+        WWPassContext stale = cache.build(REALM, "wwpass", ANY, () -> context("wwpass"));
+        WWPassContext context = cache.build(REALM, "wwpass", cached -> cached != stale, () -> context("wwpass"));
+        assertEquals(2, builds.get());
+        assertSame(context, cache.get(REALM, "wwpass"));
+        assertFalse(stale.isUsable());
+    }
+
+    @Test
+    void forgetsBuildThatThrewError() {
+        assertThrows(AssertionError.class, () -> cache.build(REALM, "wwpass", ANY, () -> {
+            throw new AssertionError("broken builder");
+        }));
+        assertSame(cache.build(REALM, "wwpass", ANY, () -> context("wwpass")), cache.get(REALM, "wwpass"));
+    }
+
+    @Test
+    void reportsFailedBuildUntilItExpires() throws InterruptedException {
+        assertThrows(IllegalArgumentException.class, () -> cache.build(REALM, "wwpass", ANY, failing()));
+        assertThrows(IllegalArgumentException.class, () -> cache.build(REALM, "wwpass", ANY, failing()));
+        assertEquals(1, builds.get());
+        assertNull(cache.get(REALM, "wwpass"));
+
+        TimeUnit.MILLISECONDS.sleep(150);
+        WWPassContext context = cache.build(REALM, "wwpass", ANY, () -> context("wwpass"));
+        assertEquals(2, builds.get());
+        assertSame(context, cache.get(REALM, "wwpass"));
+    }
+
+    @Test
+    void invalidationDropsContextAndFailure() {
+        WWPassContext context = cache.build(REALM, "wwpass", ANY, () -> context("wwpass"));
+        cache.invalidate(REALM, "wwpass", null);
+        assertNull(cache.get(REALM, "wwpass"));
+        assertFalse(context.isUsable());
+
+        assertThrows(IllegalArgumentException.class, () -> cache.build(REALM, "wwpass", ANY, failing()));
+        cache.invalidate(REALM, "wwpass", null);
+        cache.build(REALM, "wwpass", ANY, () -> context("wwpass"));
+        assertEquals(3, builds.get());
+    }
+
+    @Test
+    void invalidatesRenamedProviderByInternalId() {
+        WWPassContext context = cache.build(REALM, "old", ANY, () -> context("old"));
+        cache.invalidate(REALM, "new", "old-id");
+        assertNull(cache.get(REALM, "old"));
+        assertFalse(context.isUsable());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() throws InterruptedException {
+        WWPassContext first = cache.build(REALM, "first", ANY, () -> context("first"));
+        TimeUnit.MILLISECONDS.sleep(5);
+        WWPassContext second = cache.build(REALM, "second", ANY, () -> context("second"));
+        TimeUnit.MILLISECONDS.sleep(5);
+        cache.get(REALM, "first");
+        TimeUnit.MILLISECONDS.sleep(5);
+        cache.build(REALM, "third", ANY, () -> context("third"));
+
+        assertSame(first, cache.get(REALM, "first"));
+        assertNull(cache.get(REALM, "second"));
+        assertFalse(second.isUsable());
+        assertTrue(first.isUsable());
+        assertEquals(2, cache.contexts(REALM).size());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.wwpass.keycloak.connection;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import com.wwpass.keycloak.testing.TestScope;
+
+class WWPassEndpointsTest {
+    private final WWPassConnectionSettings defaults = WWPassConnectionSettings.defaults();
+    private final WWPassConnectionSettings regional = WWPassConnectionSettings.fromConfig(TestScope.of(
+            "spfeHosts", "spfe.example.com, *.wwpass.example.net"));
+
+    private static List<String> urls(WWPassEndpoints endpoints) {
+        return endpoints.all().stream().map(endpoint -> endpoint.url).collect(Collectors.toList());
+    }
+
+    @Test
+    void acceptsHostOfServerUrl() {
+        assertDoesNotThrow(() -> WWPassEndpoints.checkAll("https://spfe.wwpass.com", defaults));
+        assertDoesNotThrow(() -> WWPassEndpoints.checkAll("https://SPFE.wwpass.com:8443/", defaults));
+    }
+
+    @Test
+    void acceptsHostsOfServerOption() {
+        assertDoesNotThrow(() -> WWPassEndpoints.checkAll(
+                "https://spfe.example.com/, https://eu.wwpass.example.net https://spfe.wwpass.com", regional));
+        assertThrows(IllegalArgumentException.class,
+                () -> WWPassEndpoints.checkAll("https://wwpass.example.net/", regional));
+        assertThrows(IllegalArgumentException.class,
+                () -> WWPassEndpoints.checkAll("https://spfe.example.com.evil.test/", regional));
+    }
+
+    @Test
+    void rejectsOtherHosts() {
+        for (String url : List.of("https://127.0.0.1/", "https://metadata.internal/", "https://spfe.wwpass.com.test/"))
+            assertThrows(IllegalArgumentException.class, () -> WWPassEndpoints.checkAll(url, defaults), url);
+    }
+
+    @Test
+    void rejectsOtherSchemes() {
+        for (String url : List.of("http://spfe.wwpass.com/", "ftp://spfe.wwpass.com/", "spfe.wwpass.com",
+                "https:///status", "https://spfe.wwpass.com/?a=b"))
+            assertThrows(IllegalArgumentException.class, () -> WWPassEndpoints.checkAll(url, defaults), url);
+    }
+
+    @Test
+    void skipsStoredEntriesNoLongerAllowed() {
+        WWPassEndpoints endpoints = WWPassEndpoints.parse(
+                "http://spfe.wwpass.com/ https://10.0.0.1/ https://spfe.wwpass.com", defaults);
+        assertEquals(List.of("https://spfe.wwpass.com/"), urls(endpoints));
+        assertThrows(IllegalArgumentException.class, () -> WWPassEndpoints.parse("https://10.0.0.1/", defaults));
+        assertEquals(List.of(WWPassConnectionSettings.DEFAULT_SPFE_URL), urls(WWPassEndpoints.parse("", defaults)));
+    }
+}
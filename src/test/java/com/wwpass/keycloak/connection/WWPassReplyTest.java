@@ -0,0 +1,90 @@
+package com.wwpass.keycloak.connection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class WWPassReplyTest {
+    private static WWPassReply parse(String body) {
+        return WWPassReply.parse(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void parsesTicketReply() {
+        WWPassReply reply = parse("{\"result\": true, \"data\": \"spfe.wwpass.com:abc\", \"ttl\": 600}");
+        assertTrue(reply.result);
+        assertEquals("spfe.wwpass.com:abc", reply.data);
+        assertEquals(600, reply.ttl);
+    }
+
+    @Test
+    void parsesInputStream() {
+        byte[] body = "{\"result\": true, \"data\": \"puid\"}".getBytes(StandardCharsets.UTF_8);
+        WWPassReply reply = WWPassReply.parse(new ByteArrayInputStream(body));
+        assertTrue(reply.result);
+        assertEquals("puid", reply.data);
+    }
+
+    @Test
+    void acceptsResultAsString() {
+        assertTrue(parse("{\"result\": \"true\", \"data\": \"x\"}").result);
+        assertFalse(parse("{\"result\": \"false\", \"data\": \"x\"}").result);
+        assertFalse(parse("{\"result\": \"yes\", \"data\": \"x\"}").result);
+    }
+
+    @Test
+    void keepsErrorReply() {
+        WWPassReply reply = parse("{\"result\": false, \"data\": \"Invalid ticket\"}");
+        assertFalse(reply.result);
+        assertEquals("Invalid ticket", reply.data);
+    }
+
+    @Test
+    void defaultsMissingTtl() {
+        assertEquals(WWPassReply.NO_TTL, parse("{\"result\": true, \"data\": \"x\"}").ttl);
+        assertEquals(WWPassReply.NO_TTL, parse("{\"result\": true, \"data\": \"x\", \"ttl\": \"soon\"}").ttl);
+    }
+
+    @Test
+    void skipsUnknownAndNestedFields() {
+        WWPassReply reply = parse("{\"extra\": {\"result\": false}, \"data\": [1, 2], \"result\": true, \"more\": null}");
+        assertTrue(reply.result);
+        assertNull(reply.data);
+    }
+
+    @Test
+    void rejectsMissingResult() {
+        assertMalformed("{\"data\": \"x\", \"ttl\": 600}");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{\"result\": true, \"data\": \"x\"",
+            "{\"result\": true, \"data\":",
+            "{\"result\":",
+            "{"
+    })
+    void rejectsTruncatedReply(String body) {
+        assertMalformed(body);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "[]", "\"result\"", "true", "<html>Bad Gateway</html>", "{result: true}"})
+    void rejectsMalformedReply(String body) {
+        assertMalformed(body);
+    }
+
+    private static void assertMalformed(String body) {
+        WWPassException e = assertThrows(WWPassException.class, () -> parse(body));
+        assertEquals(WWPassException.Reason.MALFORMED_REPLY, e.getReason());
+    }
+}
@@ -0,0 +1,47 @@
+package com.wwpass.keycloak.connection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class WWPassSpanTest {
+    private static final String TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+    private static final String PARENT_ID = "00f067aa0ba902b7";
+
+    private static String traceId(WWPassSpan span) {
+        return span.traceparent().substring(3, 35);
+    }
+
+    @Test
+    void continuesValidTraceparent() {
+        WWPassSpan span = WWPassSpan.start("test", "00-" + TRACE_ID + "-" + PARENT_ID + "-01");
+        assertEquals(TRACE_ID, traceId(span));
+        assertTrue(span.traceparent().matches("00-" + TRACE_ID + "-[0-9a-f]{16}-01"));
+        assertNotEquals(PARENT_ID, span.traceparent().substring(36, 52));
+    }
+
+    @Test
+    void startsNewTraceForInvalidTraceparent() {
+        String[] invalid = {
+                null,
+                "",
+                "00-" + TRACE_ID + "-" + PARENT_ID,
+                "01-" + TRACE_ID + "-" + PARENT_ID + "-01",
+                "00-" + TRACE_ID.toUpperCase() + "-" + PARENT_ID + "-01",
+                "00-" + TRACE_ID + "-" + PARENT_ID.toUpperCase() + "-01",
+                "00-" + TRACE_ID.replace('4', 'g') + "-" + PARENT_ID + "-01",
+                "00-4bf92f3577b34da6a3ce929d0e0e473\"-" + PARENT_ID + "-01",
+                "00-" + TRACE_ID + "-" + PARENT_ID + "-0x",
+                "00-" + "0".repeat(32) + "-" + PARENT_ID + "-01",
+                "00-" + TRACE_ID + "-" + "0".repeat(16) + "-01",
+                "00_" + TRACE_ID + "_" + PARENT_ID + "_01",
+        };
+        for (String traceparent : invalid) {
+            WWPassSpan span = WWPassSpan.start("test", traceparent);
+            assertNotEquals(TRACE_ID, traceId(span), String.valueOf(traceparent));
+            assertTrue(span.traceparent().matches("00-[0-9a-f]{32}-[0-9a-f]{16}-01"), span.traceparent());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.wwpass.keycloak.connection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+import com.wwpass.keycloak.testing.TestScope;
+import com.wwpass.keycloak.ticket.WWPassTicket;
+
+class WWPassTicketPoolTest {
+    private final WWPassConnectionSettings settings = WWPassConnectionSettings.fromConfig(TestScope.of(
+            "ticketPoolMinTtl", "1000",
+            "ticketPoolDemandWindow", "60000"));
+    private final AtomicBoolean closedBreaker = new AtomicBoolean(true);
+    private final WWPassTicketPool pool = new WWPassTicketPool("test/wwpass", 2, settings, closedBreaker::get);
+    private final AtomicInteger fetches = new AtomicInteger();
+
+    private Supplier<CompletableFuture<WWPassTicket>> fetcher(boolean fails) {
+        return () -> {
+            int fetch = fetches.incrementAndGet();
+            if (fails)
+                return CompletableFuture.failedFuture(new WWPassException(WWPassException.Reason.UNAVAILABLE, "down"));
+            return CompletableFuture.completedFuture(new WWPassTicket("ticket-" + fetch, 600));
+        };
+    }
+
+    @Test
+    void refillsToRecentDemand() {
+        assertNull(pool.take(fetcher(false)));
+        assertEquals(1, fetches.get());
+        assertEquals(1, pool.available());
+        assertEquals("ticket-1", pool.take(fetcher(false)).ticket);
+        assertEquals(2, pool.available());
+    }
+
+    @Test
+    void skipsRefillWhileBreakerIsNotClosed() {
+        closedBreaker.set(false);
+        assertNull(pool.take(fetcher(false)));
+        pool.refresh();
+        assertEquals(0, fetches.get());
+
+        closedBreaker.set(true);
+        pool.refresh();
+        assertEquals(1, fetches.get());
+        assertEquals(1, pool.available());
+    }
+
+    @Test
+    void refillsAgainAfterFailures() {
+        // Each failure ends the refill instead of fetching again right away.
+        for (int i = 0; i < 3; i++)
+            assertNull(pool.take(fetcher(true)));
+        pool.refresh();
+        assertEquals(4, fetches.get());
+        assertEquals(0, pool.available());
+
+        pool.take(fetcher(false));
+        assertEquals(2, pool.available());
+    }
+}
@@ -0,0 +1,207 @@
+package com.wwpass.keycloak.idp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import jakarta.ws.rs.core.Response;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.keycloak.broker.provider.AuthenticationRequest;
+import org.keycloak.broker.provider.BrokeredIdentityContext;
+import org.keycloak.broker.provider.IdentityProvider.AuthenticationCallback;
+import org.keycloak.broker.provider.util.IdentityBrokerState;
+import org.keycloak.forms.login.LoginFormsProvider;
+import org.keycloak.models.IdentityProviderModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+import com.wwpass.keycloak.testing.LoadStats;
+import com.wwpass.keycloak.testing.SpfeEmulator;
+import com.wwpass.keycloak.testing.Stubs;
+import com.wwpass.keycloak.testing.TestRealm;
+import com.wwpass.keycloak.testing.TestScope;
+import com.wwpass.keycloak.ticket.WWPassTicket;
+import com.wwpass.keycloak.ticket.WWPassTicketEndpoint;
+
+/**
+ * Complete WWPass logins at a fixed arrival rate on one machine, against the SPFE emulator.
+ * Each login goes through the three requests a browser makes: the login page
+ * ({@link WWPassIdentityProvider#performLogin}), the ticket endpoint when no ticket came with the page,
+ * and the broker callback ({@code Endpoint.authResponse}). Keycloak sessions are in-memory stubs.
+ * <p>
+ * Latency is measured from the time a login was due, so logins queued behind slow ones count as slow.
+ * Allocation is summed over all threads but the emulator's. Run with {@code mvn test -Pload}, see the README
+ * for the {@code -Dwwpass.load.*} properties.
+ */
+@Tag("load")
+class WWPassLoginLoadTest {
+    private static final int RATE = Integer.getInteger("wwpass.load.rate", 50);
+    private static final int SECONDS = Integer.getInteger("wwpass.load.seconds", 30);
+    private static final long LATENCY_MILLIS = Long.getLong("wwpass.load.latencyMillis", 100);
+    private static final String EMBED_TICKET = System.getProperty("wwpass.load.embedTicket", "true");
+    private static final String FORM_ATTRIBUTES = "test.loginForm";
+
+    private final WWPassIdentityProviderFactory identityProviders = new WWPassIdentityProviderFactory();
+    private final WWPassTicketEndpoint tickets =
+            new WWPassTicketEndpoint(TestScope.of("realmRate", "0", "maxInFlight", "0"));
+
+    @Test
+    void loginsAtFixedArrivalRate() throws Exception {
+        identityProviders.init(TestScope.of());
+        try (TestRealm realm = TestRealm.start(Map.of(), Map.of("embedTicket", EMBED_TICKET))) {
+            realm.spfe.latency(SpfeEmulator.Latency.logNormal(Duration.ofMillis(LATENCY_MILLIS), 0.5));
+            realm.keycloak.provider(LoginFormsProvider.class, WWPassLoginLoadTest::loginForm);
+            // Builds the WWPass context and loads the classes before measuring.
+            for (int i = 0; i < 10; i++)
+                login(realm);
+
+            int logins = RATE * SECONDS;
+            LoadStats stats = new LoadStats(logins);
+            CountDownLatch done = new CountDownLatch(logins);
+            AtomicReference<Exception> firstFailure = new AtomicReference<>();
+            AtomicInteger browsers = new AtomicInteger();
+            ExecutorService pool = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "browser-" + browsers.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            Map<Long, Long> allocatedBefore = allocatedBytes();
+            long period = TimeUnit.SECONDS.toNanos(1) / RATE;
+            long start = System.nanoTime();
+            try {
+                for (int i = 0; i < logins; i++) {
+                    long due = start + i * period;
+                    LockSupport.parkNanos(due - System.nanoTime());
+                    pool.execute(() -> {
+                        try {
+                            login(realm);
+                            stats.success(System.nanoTime() - due);
+                        } catch (Exception e) {
+                            firstFailure.compareAndSet(null, e);
+                            stats.failure();
+                        } finally {
+                            done.countDown();
+                        }
+                    });
+                }
+                assertTrue(done.await(SECONDS + 120, TimeUnit.SECONDS), "logins still running");
+            } finally {
+                pool.shutdownNow();
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocatedSince(allocatedBefore);
+
+            System.out.println(stats.summary(String.format(Locale.ROOT,
+                    "%d logins/s for %d s, embedTicket=%s, SPFE median %d ms", RATE, SECONDS, EMBED_TICKET,
+                    LATENCY_MILLIS), elapsed));
+            System.out.printf(Locale.ROOT, "allocated %.1f KiB per login, %d tickets and %d PUIDs from the SPFE%n",
+                    allocated / 1024.0 / logins, realm.spfe.count(SpfeEmulator.Outcome.TICKET),
+                    realm.spfe.count(SpfeEmulator.Outcome.PUID));
+            if (firstFailure.get() != null)
+                firstFailure.get().printStackTrace();
+            assertEquals(0, stats.failures());
+        }
+    }
+
+    // One browser login: page, ticket if the page came without one, callback with the ticket.
+    private void login(TestRealm realm) throws Exception {
+        IdentityProviderModel model = realm.keycloak.realm().getIdentityProviderByAlias(TestRealm.ALIAS);
+        AuthenticationSessionModel authSession = realm.keycloak.authenticationSession();
+
+        KeycloakSession page = realm.session();
+        IdentityBrokerState state = IdentityBrokerState.decoded(UUID.randomUUID().toString(),
+                UUID.randomUUID().toString(), "test-client", authSession.getTabId());
+        identityProviders.create(page, model).performLogin(new AuthenticationRequest(page, realm.keycloak.realm(),
+                authSession, null, null, state, "https://client.example.com/"));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> form = (Map<String, Object>) page.getAttribute(FORM_ATTRIBUTES);
+
+        String ticket = (String) form.get("ticket");
+        if (ticket == null) {
+            // The page asks without its tab ID, as the stubs do not carry the authentication session cookie.
+            Object reply = tickets.get(realm.session(), TestRealm.ALIAS, null).get(1, TimeUnit.MINUTES);
+            if (!(reply instanceof WWPassTicket))
+                throw new IllegalStateException("No WWPass ticket: " + describe(reply));
+            ticket = ((WWPassTicket) reply).ticket;
+        }
+
+        KeycloakSession callbackSession = realm.session();
+        AtomicReference<BrokeredIdentityContext> identity = new AtomicReference<>();
+        AuthenticationCallback callback = Stubs.stub(AuthenticationCallback.class, (method, args) -> {
+            switch (method) {
+                case "getAndVerifyAuthenticationSession":
+                    return authSession;
+                case "authenticated":
+                    identity.set((BrokeredIdentityContext) args[0]);
+                    return Response.ok().build();
+                case "error":
+                    return Response.status(Response.Status.UNAUTHORIZED).build();
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+        WWPassIdentityProvider.Endpoint endpoint = (WWPassIdentityProvider.Endpoint)
+                identityProviders.create(callbackSession, model).callback(realm.keycloak.realm(), callback, null);
+        Response response = endpoint.authResponse(ticket, state.getEncoded(), 200);
+        if (identity.get() == null)
+            throw new IllegalStateException("Login failed with HTTP " + response.getStatus());
+        if (!identity.get().getId().equals(realm.spfe.puid(ticket)))
+            throw new IllegalStateException("Wrong PUID " + identity.get().getId());
+    }
+
+    private static LoginFormsProvider loginForm(KeycloakSession session) {
+        Map<String, Object> attributes = new ConcurrentHashMap<>();
+        session.setAttribute(FORM_ATTRIBUTES, attributes);
+        return Stubs.stub(LoginFormsProvider.class, (method, args) -> {
+            if (method.equals("setAttribute"))
+                attributes.put((String) args[0], args[1]);
+            else if (method.equals("createForm"))
+                return Response.ok().build();
+            return Stubs.DEFAULT;
+        });
+    }
+
+    private static String describe(Object reply) {
+        if (reply instanceof Response)
+            return "HTTP " + ((Response) reply).getStatus();
+        return String.valueOf(reply);
+    }
+
+    // Bytes allocated so far by each live thread, the emulator stands in for a remote service and is left out.
+    private static Map<Long, Long> allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Map<Long, Long> allocated = new HashMap<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("spfe-emulator") || thread.getName().startsWith("HTTP-Dispatcher"))
+                continue;
+            long bytes = threads.getThreadAllocatedBytes(thread.getId());
+            if (bytes >= 0)
+                allocated.put(thread.getId(), bytes);
+        }
+        return allocated;
+    }
+
+    // Threads that ended during the run are missed, the pools of the run keep theirs alive until the end.
+    private static long allocatedSince(Map<Long, Long> before) {
+        long total = 0;
+        for (Map.Entry<Long, Long> thread : allocatedBytes().entrySet())
+            total += thread.getValue() - before.getOrDefault(thread.getKey(), 0L);
+        return total;
+    }
+}
@@ -0,0 +1,28 @@
+package com.wwpass.keycloak.idp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class WWPassProviderModelTest {
+    private static long embedTicketTimeout(String value) {
+        WWPassProviderModel model = new WWPassProviderModel();
+        if (value != null)
+            model.getConfig().put(WWPassProviderModel.EMBED_TICKET_TIMEOUT_CONFIG_NAME, value);
+        return model.getEmbedTicketTimeout();
+    }
+
+    @Test
+    void embedsOnlyReadyTicketByDefault() {
+        assertEquals(0, embedTicketTimeout(null));
+        assertEquals(0, embedTicketTimeout(" "));
+        assertEquals(0, embedTicketTimeout("-1"));
+        assertEquals(0, embedTicketTimeout("soon"));
+    }
+
+    @Test
+    void boundsEmbedTicketTimeout() {
+        assertEquals(100, embedTicketTimeout(" 100 "));
+        assertEquals(WWPassProviderModel.MAX_EMBED_TICKET_TIMEOUT, embedTicketTimeout("1000"));
+    }
+}
@@ -0,0 +1,128 @@
+package com.wwpass.keycloak.idp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+import com.wwpass.keycloak.testing.TestScope;
+
+class WWPassTicketCacheTest {
+    private static final String REALM = "realm-id";
+    private static final String ALIAS = "wwpass";
+    private static final String TICKET = "spfe.wwpass.com:ticket";
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private Supplier<CompletableFuture<String>> resolver(CompletableFuture<String> result) {
+        return () -> {
+            calls.incrementAndGet();
+            return result;
+        };
+    }
+
+    @Test
+    void resolvesOncePerSession() {
+        WWPassTicketCache cache = new WWPassTicketCache(null);
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        CompletableFuture<String> first = cache.resolve(REALM, ALIAS, TICKET, "session", resolver(pending));
+        CompletableFuture<String> retry = cache.resolve(REALM, ALIAS, TICKET, "session", resolver(pending));
+        assertSame(first, retry);
+        assertEquals(1, calls.get());
+        pending.complete("puid");
+        assertEquals("puid", cache.resolve(REALM, ALIAS, TICKET, "session", resolver(pending)).join());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void refusesTicketOfAnotherSession() {
+        WWPassTicketCache cache = new WWPassTicketCache(null);
+        cache.resolve(REALM, ALIAS, TICKET, "session", resolver(CompletableFuture.completedFuture("puid")));
+        assertNull(cache.resolve(REALM, ALIAS, TICKET, "other", resolver(CompletableFuture.completedFuture("puid"))));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void forgetsFailedResolution() {
+        WWPassTicketCache cache = new WWPassTicketCache(null);
+        CompletableFuture<String> failed = CompletableFuture.failedFuture(new IllegalStateException("unavailable"));
+        CompletableFuture<String> first = cache.resolve(REALM, ALIAS, TICKET, "session", resolver(failed));
+        assertThrows(CompletionException.class, first::join);
+        CompletableFuture<String> retry =
+                cache.resolve(REALM, ALIAS, TICKET, "session", resolver(CompletableFuture.completedFuture("puid")));
+        assertEquals("puid", retry.join());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void forgetsResolverThatThrows() {
+        WWPassTicketCache cache = new WWPassTicketCache(null);
+        CompletableFuture<String> first = cache.resolve(REALM, ALIAS, TICKET, "session", () -> {
+            throw new IllegalStateException("no context");
+        });
+        assertTrue(first.isCompletedExceptionally());
+        assertEquals("puid",
+                cache.resolve(REALM, ALIAS, TICKET, "other", resolver(CompletableFuture.completedFuture("puid"))).join());
+    }
+
+    @Test
+    void expiresEntries() throws InterruptedException {
+        WWPassTicketCache cache = new WWPassTicketCache(TestScope.of("ticketCacheTtl", "50"));
+        cache.resolve(REALM, ALIAS, TICKET, "session", resolver(CompletableFuture.completedFuture("puid")));
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertEquals("puid",
+                cache.resolve(REALM, ALIAS, TICKET, "other", resolver(CompletableFuture.completedFuture("puid"))).join());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void keysTicketsByRealmAndIdentityProvider() {
+        WWPassTicketCache cache = new WWPassTicketCache(null);
+        cache.resolve(REALM, ALIAS, TICKET, "session", resolver(CompletableFuture.completedFuture("puid")));
+        assertEquals("other", cache.resolve(REALM, "other", TICKET, "other",
+                resolver(CompletableFuture.completedFuture("other"))).join());
+        assertEquals("other", cache.resolve("other-realm", ALIAS, TICKET, "other",
+                resolver(CompletableFuture.completedFuture("other"))).join());
+        assertEquals(3, calls.get());
+        assertNull(cache.resolve(REALM, ALIAS, TICKET, "other", resolver(null)));
+    }
+
+    @Test
+    void evictsOldestWhenFull() {
+        WWPassTicketCache cache = new WWPassTicketCache(TestScope.of("ticketCacheSize", "2"));
+        for (String ticket : new String[] {TICKET, "spfe.wwpass.com:second", "spfe.wwpass.com:third"})
+            cache.resolve(REALM, ALIAS, ticket, "session", resolver(CompletableFuture.completedFuture(ticket)));
+        assertEquals(3, calls.get());
+        // The second and third tickets are still cached, the first one is resolved for any session again.
+        assertEquals("spfe.wwpass.com:second",
+                cache.resolve(REALM, ALIAS, "spfe.wwpass.com:second", "session", resolver(null)).join());
+        assertEquals("spfe.wwpass.com:third",
+                cache.resolve(REALM, ALIAS, "spfe.wwpass.com:third", "session", resolver(null)).join());
+        assertEquals(3, calls.get());
+        assertEquals("puid", cache.resolve(REALM, ALIAS, TICKET, "other",
+                resolver(CompletableFuture.completedFuture("puid"))).join());
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    void forgottenEntriesCountUntilEvicted() {
+        WWPassTicketCache cache = new WWPassTicketCache(TestScope.of("ticketCacheSize", "2"));
+        CompletableFuture<String> failed = CompletableFuture.failedFuture(new IllegalStateException("unavailable"));
+        cache.resolve(REALM, ALIAS, TICKET, "session", resolver(CompletableFuture.completedFuture("puid")));
+        for (int i = 0; i < 100; i++)
+            cache.resolve(REALM, ALIAS, "spfe.wwpass.com:bad" + i, "session", resolver(failed));
+        assertEquals(101, calls.get());
+        // Failed entries count until they reach the head, so they pushed out the oldest one.
+        assertEquals("puid", cache.resolve(REALM, ALIAS, TICKET, "other",
+                resolver(CompletableFuture.completedFuture("puid"))).join());
+    }
+}
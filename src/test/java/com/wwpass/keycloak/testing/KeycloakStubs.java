@@ -0,0 +1,249 @@
+package com.wwpass.keycloak.testing;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.keycloak.common.ClientConnection;
+import org.keycloak.executors.ExecutorsProvider;
+import org.keycloak.models.IdentityProviderModel;
+import org.keycloak.models.KeycloakContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.provider.Provider;
+import org.keycloak.sessions.AuthenticationSessionModel;
+import org.keycloak.sessions.AuthenticationSessionProvider;
+import org.keycloak.sessions.RootAuthenticationSessionModel;
+import org.keycloak.vault.VaultStringSecret;
+import org.keycloak.vault.VaultTranscriber;
+
+/**
+ * A realm with identity providers and authentication sessions kept in memory, and the Keycloak sessions
+ * to reach them, for running the WWPass providers outside of a Keycloak server.
+ * Providers are only found when registered with {@link #provider(Class, Function)}; the
+ * {@link ExecutorsProvider} is registered up front. Vault references resolve to themselves.
+ */
+public final class KeycloakStubs implements AutoCloseable {
+    private final RealmModel realm;
+    private final String realmId;
+    private final String realmName;
+    private final Map<String, IdentityProviderModel> identityProviders = new ConcurrentHashMap<>();
+    private final Map<String, RootAuthenticationSessionModel> rootSessions = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Function<KeycloakSession, ?>> providers = new ConcurrentHashMap<>();
+    private final KeycloakSessionFactory sessionFactory;
+    private final ExecutorService executor;
+
+    public KeycloakStubs(String realmName) {
+        this.realmName = realmName;
+        this.realmId = UUID.randomUUID().toString();
+        this.realm = Stubs.stub(RealmModel.class, (method, args) -> {
+            switch (method) {
+                case "getId":
+                    return realmId;
+                case "getName":
+                    return this.realmName;
+                case "isEnabled":
+                    return true;
+                case "getIdentityProviderByAlias":
+                    return identityProviders.get((String) args[0]);
+                case "getIdentityProvidersStream":
+                    return identityProviders.values().stream();
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+        this.sessionFactory = Stubs.stub(KeycloakSessionFactory.class, (method, args) ->
+                method.equals("create") ? session() : Stubs.DEFAULT);
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "keycloak-executor-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ExecutorsProvider executors = Stubs.stub(ExecutorsProvider.class, (method, args) ->
+                method.equals("getExecutor") ? executor : Stubs.DEFAULT);
+        provider(ExecutorsProvider.class, session -> executors);
+    }
+
+    public RealmModel realm() {
+        return realm;
+    }
+
+    public KeycloakSessionFactory sessionFactory() {
+        return sessionFactory;
+    }
+
+    public IdentityProviderModel addIdentityProvider(String alias, String providerId, Map<String, String> config) {
+        IdentityProviderModel model = new IdentityProviderModel();
+        model.setAlias(alias);
+        model.setProviderId(providerId);
+        model.setInternalId(UUID.randomUUID().toString());
+        model.setEnabled(true);
+        model.setConfig(new HashMap<>(config));
+        identityProviders.put(alias, model);
+        return model;
+    }
+
+    /**
+     * Registers the provider sessions return for a type, created once per session.
+     */
+    public <T extends Provider> KeycloakStubs provider(Class<T> type, Function<KeycloakSession, ? extends T> factory) {
+        providers.put(type, factory);
+        return this;
+    }
+
+    /**
+     * New authentication session in a root session of its own, as started by a browser tab.
+     */
+    public AuthenticationSessionModel authenticationSession() {
+        String rootId = UUID.randomUUID().toString();
+        Map<String, AuthenticationSessionModel> tabs = new ConcurrentHashMap<>();
+        RootAuthenticationSessionModel root = Stubs.stub(RootAuthenticationSessionModel.class, (method, args) -> {
+            switch (method) {
+                case "getId":
+                    return rootId;
+                case "getRealm":
+                    return realm;
+                case "getAuthenticationSessions":
+                    return Collections.unmodifiableMap(tabs);
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+        String tabId = UUID.randomUUID().toString().substring(0, 8);
+        Map<String, String> notes = new ConcurrentHashMap<>();
+        AuthenticationSessionModel authSession = Stubs.stub(AuthenticationSessionModel.class, (method, args) -> {
+            switch (method) {
+                case "getTabId":
+                    return tabId;
+                case "getParentSession":
+                    return root;
+                case "getRealm":
+                    return realm;
+                case "getAuthNote":
+                    return notes.get((String) args[0]);
+                case "setAuthNote":
+                    notes.put((String) args[0], (String) args[1]);
+                    return null;
+                case "removeAuthNote":
+                    notes.remove((String) args[0]);
+                    return null;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+        tabs.put(tabId, authSession);
+        rootSessions.put(rootId, root);
+        return authSession;
+    }
+
+    /**
+     * New session of a request from the given client address, with the realm set in its context.
+     */
+    public KeycloakSession session(String remoteAddress) {
+        Map<String, Object> attributes = new ConcurrentHashMap<>();
+        Map<Class<?>, Object> instances = new ConcurrentHashMap<>();
+        KeycloakSession[] self = new KeycloakSession[1];
+        KeycloakContext context = context(remoteAddress);
+        RealmProvider realms = Stubs.stub(RealmProvider.class, (method, args) -> {
+            switch (method) {
+                case "getRealm":
+                    return realmId.equals(args[0]) ? realm : null;
+                case "getRealmByName":
+                    return realmName.equals(args[0]) ? realm : null;
+                case "getRealmsStream":
+                    return Stream.of(realm);
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+        AuthenticationSessionProvider authenticationSessions = Stubs.stub(AuthenticationSessionProvider.class,
+                (method, args) -> method.equals("getRootAuthenticationSession") && args.length == 2
+                        ? rootSessions.get((String) args[1]) : Stubs.DEFAULT);
+        VaultTranscriber vault = Stubs.stub(VaultTranscriber.class, (method, args) ->
+                method.equals("getStringSecret") ? secret((String) args[0]) : Stubs.DEFAULT);
+        self[0] = Stubs.stub(KeycloakSession.class, (method, args) -> {
+            switch (method) {
+                case "getContext":
+                    return context;
+                case "getKeycloakSessionFactory":
+                    return sessionFactory;
+                case "realms":
+                    return realms;
+                case "authenticationSessions":
+                    return authenticationSessions;
+                case "vault":
+                    return vault;
+                case "getProvider":
+                    return provider(self[0], instances, (Class<?>) args[0]);
+                case "getAttribute":
+                    return attributes.get((String) args[0]);
+                case "setAttribute":
+                    attributes.put((String) args[0], args[1]);
+                    return null;
+                case "removeAttribute":
+                    return attributes.remove((String) args[0]);
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+        return self[0];
+    }
+
+    public KeycloakSession session() {
+        return session("127.0.0.1");
+    }
+
+    private Object provider(KeycloakSession session, Map<Class<?>, Object> instances, Class<?> type) {
+        Function<KeycloakSession, ?> factory = providers.get(type);
+        if (factory == null)
+            return null;
+        return instances.computeIfAbsent(type, t -> factory.apply(session));
+    }
+
+    private KeycloakContext context(String remoteAddress) {
+        AtomicReference<Object> currentRealm = new AtomicReference<>(realm);
+        AtomicReference<Object> currentAuthSession = new AtomicReference<>();
+        ClientConnection connection = Stubs.stub(ClientConnection.class, (method, args) ->
+                method.equals("getRemoteAddr") || method.equals("getRemoteHost") ? remoteAddress : Stubs.DEFAULT);
+        return Stubs.stub(KeycloakContext.class, (method, args) -> {
+            switch (method) {
+                case "getRealm":
+                    return currentRealm.get();
+                case "setRealm":
+                    currentRealm.set(args[0]);
+                    return null;
+                case "getAuthenticationSession":
+                    return currentAuthSession.get();
+                case "setAuthenticationSession":
+                    currentAuthSession.set(args[0]);
+                    return null;
+                case "getConnection":
+                    return connection;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+    }
+
+    private static VaultStringSecret secret(String value) {
+        return Stubs.stub(VaultStringSecret.class, (method, args) ->
+                method.equals("get") ? Optional.ofNullable(value) : Stubs.DEFAULT);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,61 @@
+package com.wwpass.keycloak.testing;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Outcomes and latencies of the operations of a load run, summarized once the run is over.
+ */
+public final class LoadStats {
+    private final long[] latencies;
+    private final AtomicInteger recorded = new AtomicInteger();
+    private final LongAdder failures = new LongAdder();
+
+    public LoadStats(int capacity) {
+        this.latencies = new long[capacity];
+    }
+
+    public void success(long nanos) {
+        int index = recorded.getAndIncrement();
+        if (index < latencies.length)
+            latencies[index] = nanos;
+    }
+
+    public void failure() {
+        failures.increment();
+    }
+
+    public long successes() {
+        return recorded.get();
+    }
+
+    public long failures() {
+        return failures.sum();
+    }
+
+    /**
+     * Latency of successful operations at a quantile, in milliseconds.
+     */
+    public double millis(double quantile) {
+        long[] sorted = Arrays.copyOf(latencies, Math.min(recorded.get(), latencies.length));
+        if (sorted.length == 0)
+            return 0;
+        Arrays.sort(sorted);
+        int index = Math.max(0, (int) Math.ceil(quantile * sorted.length) - 1);
+        return sorted[index] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public double throughput(long elapsedNanos) {
+        return successes() / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    public String summary(String label, long elapsedNanos) {
+        return String.format(Locale.ROOT,
+                "%s: %d ok, %d failed in %.1f s, %.1f/s, latency p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+                label, successes(), failures(), elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1),
+                throughput(elapsedNanos), millis(0.50), millis(0.90), millis(0.99), millis(1.0));
+    }
+}
@@ -0,0 +1,320 @@
+package com.wwpass.keycloak.testing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsExchange;
+import com.sun.net.httpserver.HttpsParameters;
+import com.sun.net.httpserver.HttpsServer;
+
+/**
+ * Local stand-in for the WWPass SPFE: answers {@code get.json} and {@code puid.json} over mutual TLS
+ * with certificates of a {@link TestPki}, so the connection provider runs unchanged against it.
+ * <p>
+ * Latency is drawn from a configurable distribution for every request, and a share of requests
+ * can be turned into WWPass error replies, HTTP errors, connections closed without a reply
+ * or replies trickling in slowly. Everything can be changed while the emulator is running.
+ */
+public final class SpfeEmulator implements AutoCloseable {
+
+    /**
+     * Delay before a request is answered.
+     */
+    @FunctionalInterface
+    public interface Latency {
+        long nanos(Random random);
+
+        static Latency none() {
+            return random -> 0;
+        }
+
+        static Latency fixed(Duration delay) {
+            long nanos = delay.toNanos();
+            return random -> nanos;
+        }
+
+        static Latency uniform(Duration min, Duration max) {
+            long from = min.toNanos();
+            long to = max.toNanos();
+            return random -> from + (long) (random.nextDouble() * (to - from));
+        }
+
+        static Latency exponential(Duration mean) {
+            double nanos = mean.toNanos();
+            return random -> (long) (-nanos * Math.log(1 - random.nextDouble()));
+        }
+
+        /**
+         * Long-tailed delays as seen on real networks, {@code sigma} around 0.5 gives a p99 of about three times the median.
+         */
+        static Latency logNormal(Duration median, double sigma) {
+            double nanos = median.toNanos();
+            return random -> (long) (nanos * Math.exp(sigma * random.nextGaussian()));
+        }
+    }
+
+    public enum Outcome {
+        TICKET,
+        PUID,
+        ERROR_REPLY,
+        HTTP_ERROR,
+        RESET,
+        SLOW_READ
+    }
+
+    private final HttpsServer server;
+    private final ExecutorService executor;
+    private final Map<String, String> puids = new ConcurrentHashMap<>();
+    private final Set<String> clients = ConcurrentHashMap.newKeySet();
+    private final Map<Outcome, LongAdder> outcomes = new EnumMap<>(Outcome.class);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile Latency latency = Latency.none();
+    private volatile double errorReplyRate;
+    private volatile double httpErrorRate;
+    private volatile double resetRate;
+    private volatile double slowReadRate;
+    private volatile Duration slowReadDuration = Duration.ofSeconds(1);
+    private volatile int ticketTtl = 600;
+
+    private SpfeEmulator(TestPki pki) throws IOException {
+        for (Outcome outcome : Outcome.values())
+            outcomes.put(outcome, new LongAdder());
+        AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "spfe-emulator-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpsServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.setHttpsConfigurator(new HttpsConfigurator(pki.serverContext()) {
+            @Override
+            public void configure(HttpsParameters params) {
+                SSLParameters parameters = getSSLContext().getDefaultSSLParameters();
+                parameters.setNeedClientAuth(true);
+                params.setSSLParameters(parameters);
+            }
+        });
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public static SpfeEmulator start(TestPki pki) {
+        try {
+            return new SpfeEmulator(pki);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Base URL for the {@code spfeUrl} option or the {@code spfeEndpoints} of an identity provider.
+     */
+    public String url() {
+        return "https://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    public SpfeEmulator latency(Latency latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    public SpfeEmulator errorReplies(double rate) {
+        this.errorReplyRate = rate;
+        return this;
+    }
+
+    public SpfeEmulator httpErrors(double rate) {
+        this.httpErrorRate = rate;
+        return this;
+    }
+
+    public SpfeEmulator resets(double rate) {
+        this.resetRate = rate;
+        return this;
+    }
+
+    public SpfeEmulator slowReads(double rate, Duration duration) {
+        this.slowReadRate = rate;
+        this.slowReadDuration = duration;
+        return this;
+    }
+
+    public SpfeEmulator ticketTtl(int seconds) {
+        this.ticketTtl = seconds;
+        return this;
+    }
+
+    /**
+     * PUID the emulator resolves an issued ticket to, {@code null} for tickets it did not issue.
+     */
+    public String puid(String ticket) {
+        return puids.get(ticket);
+    }
+
+    public long count(Outcome outcome) {
+        return outcomes.get(outcome).sum();
+    }
+
+    /**
+     * Subject names of the client certificates requests came with.
+     */
+    public Set<String> clients() {
+        return Set.copyOf(clients);
+    }
+
+    /**
+     * Highest number of requests handled at the same time.
+     */
+    public int maxInFlight() {
+        return maxInFlight.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int current = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(current, Math::max);
+        try {
+            clients.add(clientName((HttpsExchange) exchange));
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            sleep(latency.nanos(random));
+            if (random.nextDouble() < resetRate) {
+                outcomes.get(Outcome.RESET).increment();
+                // Closing before the status line is sent drops the connection.
+                exchange.close();
+                return;
+            }
+            if (random.nextDouble() < httpErrorRate) {
+                outcomes.get(Outcome.HTTP_ERROR).increment();
+                send(exchange, 503, "text/html", "<html><body>Service Unavailable</body></html>", false);
+                return;
+            }
+            boolean slow = random.nextDouble() < slowReadRate;
+            if (slow)
+                outcomes.get(Outcome.SLOW_READ).increment();
+            if (random.nextDouble() < errorReplyRate) {
+                outcomes.get(Outcome.ERROR_REPLY).increment();
+                send(exchange, 200, "application/json", reply(false, "Emulated WWPass error", -1), slow);
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            Map<String, String> params = query(exchange.getRequestURI().getRawQuery());
+            if (path.equals("/get.json")) {
+                outcomes.get(Outcome.TICKET).increment();
+                String ticket = "emulator:" + hex(random, 16) + (params.getOrDefault("auth_type", "").isEmpty()
+                        ? "" : ":" + params.get("auth_type"));
+                puids.put(ticket, hex(random, 16));
+                send(exchange, 200, "application/json", reply(true, ticket, ticketTtl), slow);
+            } else if (path.equals("/puid.json")) {
+                String puid = puids.get(params.getOrDefault("ticket", ""));
+                if (puid != null)
+                    outcomes.get(Outcome.PUID).increment();
+                send(exchange, 200, "application/json",
+                        puid == null ? reply(false, "Invalid ticket", -1) : reply(true, puid, -1), slow);
+            } else {
+                send(exchange, 404, "text/plain", "Not found", false);
+            }
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private static String clientName(HttpsExchange exchange) {
+        try {
+            Principal peer = exchange.getSSLSession().getPeerPrincipal();
+            return peer.getName();
+        } catch (SSLPeerUnverifiedException e) {
+            return "";
+        }
+    }
+
+    private void send(HttpExchange exchange, int status, String contentType, String body, boolean slow)
+            throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        // A slow reply is chunked, so the client sees the status line right away and waits for the body.
+        exchange.sendResponseHeaders(status, slow ? 0 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            if (!slow) {
+                out.write(bytes);
+                return;
+            }
+            long pause = slowReadDuration.toNanos() / bytes.length;
+            for (byte b : bytes) {
+                out.write(b);
+                out.flush();
+                sleep(pause);
+            }
+        }
+    }
+
+    private static String reply(boolean result, String data, int ttl) {
+        StringBuilder json = new StringBuilder(96)
+                .append("{\"result\": ").append(result)
+                .append(", \"data\": \"").append(data).append('"')
+                .append(", \"encoding\": \"plain\"");
+        if (ttl >= 0)
+            json.append(", \"ttl\": ").append(ttl);
+        return json.append('}').toString();
+    }
+
+    private static Map<String, String> query(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null)
+            return params;
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0)
+                params.put(pair.substring(0, equals),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static String hex(Random random, int bytes) {
+        byte[] value = new byte[bytes];
+        random.nextBytes(value);
+        return HexFormat.of().formatHex(value);
+    }
+
+    private static void sleep(long nanos) {
+        if (nanos <= 0)
+            return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
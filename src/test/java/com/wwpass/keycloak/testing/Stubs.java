@@ -0,0 +1,86 @@
+package com.wwpass.keycloak.testing;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Stand-ins for Keycloak interfaces, built as dynamic proxies.
+ * Methods an {@link Answer} does not handle return an empty value of their type,
+ * or a stub of it for interfaces, so only the calls a test depends on need to be written.
+ */
+public final class Stubs {
+    /**
+     * Returned by an {@link Answer} to fall back to the default value of a method.
+     */
+    public static final Object DEFAULT = new Object();
+
+    @FunctionalInterface
+    public interface Answer {
+        Object answer(String method, Object[] args) throws Throwable;
+    }
+
+    private Stubs() {
+    }
+
+    public static <T> T stub(Class<T> type, Answer answer) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            Object[] arguments = args == null ? new Object[0] : args;
+            if (method.getDeclaringClass() == Object.class && !method.getName().equals("toString"))
+                return method.getName().equals("equals") ? proxy == arguments[0] : System.identityHashCode(proxy);
+            Object result = answer.answer(method.getName(), arguments);
+            if (result != DEFAULT)
+                return result;
+            if (method.getDeclaringClass() == Object.class)
+                return type.getSimpleName() + " stub";
+            if (method.isDefault())
+                return InvocationHandler.invokeDefault(proxy, method, args);
+            return defaultValue(method.getReturnType());
+        };
+        return type.cast(Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    public static <T> T stub(Class<T> type) {
+        return stub(type, (method, args) -> DEFAULT);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == void.class)
+            return null;
+        if (type == boolean.class)
+            return false;
+        if (type == int.class)
+            return 0;
+        if (type == long.class)
+            return 0L;
+        if (type == double.class)
+            return 0.0;
+        if (type == float.class)
+            return 0.0f;
+        if (type == short.class)
+            return (short) 0;
+        if (type == byte.class)
+            return (byte) 0;
+        if (type == char.class)
+            return '\0';
+        if (type == Optional.class)
+            return Optional.empty();
+        if (type == Stream.class)
+            return Stream.empty();
+        if (type == List.class || type == Collection.class)
+            return Collections.emptyList();
+        if (type == Set.class)
+            return Collections.emptySet();
+        if (type == Map.class)
+            return Collections.emptyMap();
+        if (type.isInterface() && !type.getName().startsWith("java."))
+            return stub(type);
+        return null;
+    }
+}
@@ -0,0 +1,174 @@
+package com.wwpass.keycloak.testing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Test CA with a server certificate for {@code localhost} and {@code 127.0.0.1} and a client certificate,
+ * issued with the {@code keytool} of the running JDK. Key stores are PKCS#12 with password {@value #PASSWORD}.
+ */
+public final class TestPki {
+    public static final String PASSWORD = "changeit";
+    public static final String CLIENT_NAME = "sp.example.com";
+    private static final long TOOL_TIMEOUT_SECONDS = 60;
+    private static TestPki shared;
+
+    public final Path directory;
+    public final Path caCertificate;
+    public final Path serverKeyStore;
+    public final Path clientKeyStore;
+
+    private TestPki(Path directory) {
+        this.directory = directory;
+        this.caCertificate = directory.resolve("ca.pem");
+        this.serverKeyStore = directory.resolve("server.p12");
+        this.clientKeyStore = directory.resolve("client.p12");
+    }
+
+    /**
+     * Certificates shared by all tests of a JVM, as issuing them takes a few seconds.
+     */
+    public static synchronized TestPki shared() {
+        if (shared == null) {
+            try {
+                shared = create(Files.createTempDirectory("wwpass-pki"));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return shared;
+    }
+
+    public static TestPki create(Path directory) {
+        TestPki pki = new TestPki(directory);
+        pki.keytool("-genkeypair", "-keystore", "ca.p12", "-alias", "ca", "-dname", "CN=WWPass Test CA",
+                "-keyalg", "EC", "-ext", "bc:c", "-validity", "30");
+        pki.keytool("-exportcert", "-keystore", "ca.p12", "-alias", "ca", "-rfc", "-file", "ca.pem");
+        pki.issue("server", "EC", "CN=localhost", "SAN=dns:localhost,ip:127.0.0.1", "EKU=serverAuth");
+        // RSA like the certificates WWPass issues to service providers.
+        pki.issue("client", "RSA", "CN=" + CLIENT_NAME, "SAN=dns:" + CLIENT_NAME, "EKU=clientAuth");
+        return pki;
+    }
+
+    private void issue(String name, String keyAlgorithm, String subject, String subjectAlternativeNames,
+                       String extendedKeyUsage) {
+        String keyStore = name + ".p12";
+        keytool("-genkeypair", "-keystore", keyStore, "-alias", name, "-dname", subject, "-keyalg", keyAlgorithm);
+        keytool("-certreq", "-keystore", keyStore, "-alias", name, "-file", name + ".csr");
+        keytool("-gencert", "-keystore", "ca.p12", "-alias", "ca", "-infile", name + ".csr",
+                "-outfile", name + ".pem", "-rfc", "-validity", "30",
+                "-ext", subjectAlternativeNames, "-ext", extendedKeyUsage);
+        keytool("-importcert", "-keystore", keyStore, "-alias", "ca", "-file", "ca.pem", "-noprompt");
+        keytool("-importcert", "-keystore", keyStore, "-alias", name, "-file", name + ".pem", "-noprompt");
+    }
+
+    private void keytool(String command, String... args) {
+        List<String> line = new ArrayList<>(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "keytool").toString(), command));
+        line.addAll(List.of(args));
+        line.addAll(List.of("-storetype", "PKCS12", "-storepass", PASSWORD));
+        if (command.equals("-genkeypair"))
+            line.addAll(List.of("-keypass", PASSWORD));
+        try {
+            Process process = new ProcessBuilder(line)
+                    .directory(directory.toFile())
+                    .redirectErrorStream(true)
+                    .start();
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            if (!process.waitFor(TOOL_TIMEOUT_SECONDS, TimeUnit.SECONDS) || process.exitValue() != 0)
+                throw new IllegalStateException("keytool " + command + " failed: " + output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Server side of mutual TLS: the server certificate, trusting client certificates of the test CA.
+     */
+    public SSLContext serverContext() {
+        try {
+            KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keys.init(load(serverKeyStore), PASSWORD.toCharArray());
+            TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trust.init(trustStore());
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keys.getKeyManagers(), trust.getTrustManagers(), null);
+            return context;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Client certificate in PEM, as pasted into the {@code certificate} option of an identity provider.
+     */
+    public String clientCertificatePem() {
+        try {
+            return pem("CERTIFICATE", load(clientKeyStore).getCertificate("client").getEncoded());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Client private key in unencrypted PKCS#8 PEM, as pasted into the {@code privateKey} option.
+     */
+    public String clientPrivateKeyPem() {
+        try {
+            Key key = load(clientKeyStore).getKey("client", PASSWORD.toCharArray());
+            return pem("PRIVATE KEY", key.getEncoded());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private KeyStore trustStore() throws IOException, GeneralSecurityException {
+        KeyStore trustStore = KeyStore.getInstance("PKCS12");
+        trustStore.load(null, null);
+        try (InputStream in = Files.newInputStream(caCertificate)) {
+            Certificate ca = CertificateFactory.getInstance("X.509").generateCertificate(in);
+            trustStore.setCertificateEntry("ca", ca);
+        }
+        return trustStore;
+    }
+
+    private static KeyStore load(Path file) throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(file)) {
+            keyStore.load(in, PASSWORD.toCharArray());
+        }
+        return keyStore;
+    }
+
+    private static String pem(String type, byte[] der) {
+        return "-----BEGIN " + type + "-----\n" +
+                Base64.getMimeEncoder(64, new byte[]{'\n'}).encodeToString(der) +
+                "\n-----END " + type + "-----\n";
+    }
+}
@@ -0,0 +1,104 @@
+package com.wwpass.keycloak.testing;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.keycloak.models.KeycloakSession;
+
+import com.wwpass.keycloak.connection.WWPassConnectionFactoryImpl;
+import com.wwpass.keycloak.connection.WWPassConnectionProvider;
+import com.wwpass.keycloak.idp.WWPassIdentityProviderFactory;
+
+/**
+ * A realm with one WWPass identity provider whose connection provider talks to a running {@link SpfeEmulator}.
+ * The client key store of the {@link TestPki} is placed in the realm credentials directory
+ * and trust is anchored at the test CA, as an operator would set it up for a private SPFE.
+ */
+public final class TestRealm implements AutoCloseable {
+    public static final String NAME = "test";
+    public static final String ALIAS = "wwpass";
+
+    public final TestPki pki;
+    public final SpfeEmulator spfe;
+    public final KeycloakStubs keycloak;
+    public final WWPassConnectionFactoryImpl connections;
+    /**
+     * Options the connection provider was initialized with.
+     */
+    public final Map<String, String> options;
+
+    private TestRealm(Map<String, String> options, Map<String, String> config) {
+        pki = TestPki.shared();
+        spfe = SpfeEmulator.start(pki);
+        keycloak = new KeycloakStubs(NAME);
+        Path credentials = pki.directory.resolve("credentials");
+        try {
+            Files.createDirectories(credentials.resolve(NAME));
+            Files.copy(pki.clientKeyStore, credentials.resolve(NAME).resolve("client.p12"),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Map<String, String> settings = new HashMap<>();
+        settings.put("spfeUrl", spfe.url());
+        settings.put("trustAnchor", pki.caCertificate.toString());
+        settings.put("credentialsDirectory", credentials.toString());
+        settings.putAll(options);
+        this.options = Map.copyOf(settings);
+        connections = new WWPassConnectionFactoryImpl();
+        connections.init(TestScope.of(settings));
+        keycloak.provider(WWPassConnectionProvider.class, connections::create);
+
+        configure(config);
+    }
+
+    /**
+     * Replaces the identity provider, with the given options added to or replacing the key store
+     * credentials and the emulator endpoint.
+     */
+    public void configure(Map<String, String> config) {
+        Map<String, String> idp = new HashMap<>();
+        idp.put("keyStore", "client.p12");
+        idp.put("keyStorePassword", TestPki.PASSWORD);
+        idp.put("usePIN", "false");
+        idp.put("spfeEndpoints", spfe.url());
+        idp.putAll(config);
+        keycloak.addIdentityProvider(ALIAS, WWPassIdentityProviderFactory.PROVIDER_ID, idp);
+    }
+
+    /**
+     * @param options connection provider options, added to or replacing the ones pointing at the emulator
+     * @param config  identity provider options, see {@link #configure(Map)}
+     */
+    public static TestRealm start(Map<String, String> options, Map<String, String> config) {
+        return new TestRealm(options, config);
+    }
+
+    public static TestRealm start() {
+        return start(Map.of(), Map.of());
+    }
+
+    public KeycloakSession session() {
+        return keycloak.session();
+    }
+
+    /**
+     * Connection provider of a new request session.
+     */
+    public WWPassConnectionProvider connection() {
+        return session().getProvider(WWPassConnectionProvider.class);
+    }
+
+    @Override
+    public void close() {
+        connections.close();
+        spfe.close();
+        keycloak.close();
+    }
+}
@@ -0,0 +1,50 @@
+package com.wwpass.keycloak.testing;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.keycloak.Config.Scope;
+
+/**
+ * SPI configuration scope holding the given options, as set with {@code --spi-<spi>-<provider>-<option>}.
+ */
+public final class TestScope {
+    private TestScope() {
+    }
+
+    public static Scope of(Map<String, String> options) {
+        Map<String, String> values = new HashMap<>(options);
+        return Stubs.stub(Scope.class, (method, args) -> {
+            String value = args.length > 0 && args[0] instanceof String ? values.get(args[0]) : null;
+            Object defaultValue = args.length > 1 ? args[1] : null;
+            switch (method) {
+                case "get":
+                    return value != null ? value : defaultValue;
+                case "getInt":
+                    return value != null ? Integer.valueOf(value) : defaultValue;
+                case "getLong":
+                    return value != null ? Long.valueOf(value) : defaultValue;
+                case "getBoolean":
+                    return value != null ? Boolean.valueOf(value) : defaultValue;
+                case "getArray":
+                    return value != null ? value.split(",") : null;
+                case "scope":
+                    return of(Map.of());
+                case "getPropertyNames":
+                    return Set.copyOf(values.keySet());
+                case "toString":
+                    return values.toString();
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+    }
+
+    public static Scope of(String... options) {
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i + 1 < options.length; i += 2)
+            values.put(options[i], options[i + 1]);
+        return of(values);
+    }
+}
@@ -0,0 +1,37 @@
+package com.wwpass.keycloak.ticket;
+
+import java.util.concurrent.CompletableFuture;
+
+import jakarta.ws.rs.container.AsyncResponse;
+
+import org.keycloak.Config.Scope;
+import org.keycloak.models.KeycloakSession;
+
+import com.wwpass.keycloak.testing.Stubs;
+
+/**
+ * The {@code wwpass-ticket} realm resource as requests reach it, for tests outside of this package.
+ */
+public final class WWPassTicketEndpoint {
+    private final WWPassTicketFactory factory = new WWPassTicketFactory();
+
+    public WWPassTicketEndpoint(Scope config) {
+        factory.init(config);
+    }
+
+    /**
+     * Requests a ticket in the given request session. The result is what the response is resumed with:
+     * a {@link WWPassTicket}, an error {@link jakarta.ws.rs.core.Response} or an exception.
+     */
+    public CompletableFuture<Object> get(KeycloakSession session, String alias, String tabId) {
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        AsyncResponse response = Stubs.stub(AsyncResponse.class, (method, args) ->
+                method.equals("resume") ? result.complete(args[0]) : Stubs.DEFAULT);
+        try {
+            ((WWPassTicketProvider) factory.create(session)).get(alias, tabId, response);
+        } catch (RuntimeException e) {
+            result.complete(e);
+        }
+        return result;
+    }
+}
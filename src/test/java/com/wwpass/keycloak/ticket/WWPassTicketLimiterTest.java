@@ -0,0 +1,96 @@
+package com.wwpass.keycloak.ticket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.wwpass.keycloak.testing.TestScope;
+
+class WWPassTicketLimiterTest {
+    private static final String REALM = "realm-id";
+
+    private static WWPassTicketLimiter limiter(String... options) {
+        return new WWPassTicketLimiter(TestScope.of(options));
+    }
+
+    private static void assertRejected(String limit, WWPassTicketLimiter.Rejection rejection) {
+        assertNotNull(rejection, "rejected by " + limit);
+        assertEquals(limit, rejection.limit);
+        assertTrue(rejection.retryAfterSeconds >= 1);
+    }
+
+    @Test
+    void admitsRealmBurstThenRejects() {
+        WWPassTicketLimiter limiter = limiter("realmRate", "1", "realmBurst", "3", "maxInFlight", "0");
+        for (int i = 0; i < 3; i++)
+            assertNull(limiter.tryAcquire(REALM, "192.0.2.1"));
+        assertRejected("realm", limiter.tryAcquire(REALM, "192.0.2.2"));
+        assertNull(limiter.tryAcquire("other-realm", "192.0.2.2"));
+    }
+
+    @Test
+    void refillsAtRate() throws InterruptedException {
+        WWPassTicketLimiter limiter = limiter("realmRate", "10", "realmBurst", "1", "maxInFlight", "0");
+        assertNull(limiter.tryAcquire(REALM, null));
+        assertRejected("realm", limiter.tryAcquire(REALM, null));
+        TimeUnit.MILLISECONDS.sleep(120);
+        assertNull(limiter.tryAcquire(REALM, null));
+    }
+
+    @Test
+    void disablesClientLimitByDefault() {
+        WWPassTicketLimiter limiter = limiter("realmRate", "0", "maxInFlight", "0");
+        for (int i = 0; i < 1000; i++)
+            assertNull(limiter.tryAcquire(REALM, "192.0.2.1"));
+    }
+
+    @Test
+    void limitsEachClient() {
+        WWPassTicketLimiter limiter = limiter("clientRate", "1", "clientBurst", "2", "realmRate", "0",
+                "maxInFlight", "0");
+        assertNull(limiter.tryAcquire(REALM, "192.0.2.1"));
+        assertNull(limiter.tryAcquire(REALM, "192.0.2.1"));
+        assertRejected("client", limiter.tryAcquire(REALM, "192.0.2.1"));
+        assertNull(limiter.tryAcquire(REALM, "192.0.2.2"));
+    }
+
+    @Test
+    void clientRejectionKeepsRealmToken() {
+        WWPassTicketLimiter limiter = limiter("clientRate", "1", "clientBurst", "1", "realmRate", "1",
+                "realmBurst", "2", "maxInFlight", "0");
+        assertNull(limiter.tryAcquire(REALM, "192.0.2.1"));
+        assertRejected("client", limiter.tryAcquire(REALM, "192.0.2.1"));
+        assertNull(limiter.tryAcquire(REALM, "192.0.2.2"));
+        assertRejected("realm", limiter.tryAcquire(REALM, "192.0.2.3"));
+    }
+
+    @Test
+    void realmRejectionKeepsClientToken() throws InterruptedException {
+        WWPassTicketLimiter limiter = limiter("clientRate", "1", "clientBurst", "2", "realmRate", "10",
+                "realmBurst", "1", "maxInFlight", "0");
+        assertNull(limiter.tryAcquire(REALM, "192.0.2.1"));
+        assertRejected("realm", limiter.tryAcquire(REALM, "192.0.2.1"));
+        TimeUnit.MILLISECONDS.sleep(120);
+        assertNull(limiter.tryAcquire(REALM, "192.0.2.1"));
+    }
+
+    @Test
+    void limitsRequestsInFlight() {
+        WWPassTicketLimiter limiter = limiter("realmRate", "1", "realmBurst", "3", "maxInFlight", "2");
+        assertNull(limiter.tryAcquire(REALM, null));
+        assertNull(limiter.tryAcquire(REALM, null));
+        WWPassTicketLimiter.Rejection rejection = limiter.tryAcquire(REALM, null);
+        assertNotNull(rejection);
+        assertEquals("inflight", rejection.limit);
+        limiter.release();
+        // The rejected request did not use up the last realm token.
+        assertNull(limiter.tryAcquire(REALM, null));
+        limiter.release();
+        assertRejected("realm", limiter.tryAcquire(REALM, null));
+    }
+}